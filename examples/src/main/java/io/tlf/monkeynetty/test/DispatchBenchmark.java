@@ -0,0 +1,127 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.test;
+
+import io.tlf.monkeynetty.MessageDispatcher;
+import io.tlf.monkeynetty.MessageListener;
+import io.tlf.monkeynetty.NetworkClient;
+import io.tlf.monkeynetty.NetworkServer;
+import io.tlf.monkeynetty.msg.NetworkMessage;
+import io.tlf.monkeynetty.test.messages.TestTCPBigMessageA;
+import io.tlf.monkeynetty.test.messages.TestTCPBigMessageB;
+import io.tlf.monkeynetty.test.messages.TestTCPMessage;
+import io.tlf.monkeynetty.test.messages.TestUDPBigMessageA;
+import io.tlf.monkeynetty.test.messages.TestUDPBigMessageB;
+import io.tlf.monkeynetty.test.messages.TestUDPMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the cost of dispatching a message through <code>MessageDispatcher</code> against
+ * checking every supported class of every listener, as the listener count grows.
+ * Only one listener is registered for the dispatched message.
+ */
+public class DispatchBenchmark {
+
+    private static final int ITERATIONS = 200_000;
+    private static final int[] LISTENER_COUNTS = {1, 10, 100, 1000};
+
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends NetworkMessage>[] OTHER_MESSAGES = new Class[]{
+            TestUDPMessage.class, TestTCPBigMessageA.class, TestTCPBigMessageB.class,
+            TestUDPBigMessageA.class, TestUDPBigMessageB.class
+    };
+
+    private static long received = 0;
+
+    public static void main(String[] args) {
+        NetworkMessage message = new TestTCPMessage();
+        //Warm up both paths before measuring
+        for (int count : LISTENER_COUNTS) {
+            run(count, message);
+        }
+        System.out.printf("%10s %15s %15s%n", "listeners", "loop ns/msg", "table ns/msg");
+        for (int count : LISTENER_COUNTS) {
+            long[] result = run(count, message);
+            System.out.printf("%10d %15.1f %15.1f%n", count, result[0] / (double) ITERATIONS, result[1] / (double) ITERATIONS);
+        }
+        System.out.println("Messages received: " + received);
+    }
+
+    /**
+     * @param count   The number of listeners to register
+     * @param message The message to dispatch
+     * @return The nanoseconds taken by the loop, and by the dispatcher
+     */
+    private static long[] run(int count, NetworkMessage message) {
+        List<MessageListener> listeners = new ArrayList<>();
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        for (int i = 0; i < count; i++) {
+            MessageListener listener = i == count / 2 ? new CountingListener(message.getClass(), OTHER_MESSAGES[0])
+                    : new CountingListener(OTHER_MESSAGES[i % OTHER_MESSAGES.length], OTHER_MESSAGES[(i + 1) % OTHER_MESSAGES.length]);
+            listeners.add(listener);
+            dispatcher.register(listener);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (MessageListener handler : listeners) {
+                for (Class<? extends NetworkMessage> a : handler.getSupportedMessages()) {
+                    if (a.isInstance(message)) {
+                        handler.onMessage(message, null, null);
+                    }
+                }
+            }
+        }
+        long loop = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            dispatcher.dispatch(message, null, null);
+        }
+        long table = System.nanoTime() - start;
+        return new long[]{loop, table};
+    }
+
+    private static class CountingListener implements MessageListener {
+        private final Class<? extends NetworkMessage>[] supported;
+
+        @SafeVarargs
+        private CountingListener(Class<? extends NetworkMessage>... supported) {
+            this.supported = supported;
+        }
+
+        @Override
+        public void onMessage(NetworkMessage msg, NetworkServer server, NetworkClient client) {
+            received++;
+        }
+
+        @Override
+        public Class<? extends NetworkMessage>[] getSupportedMessages() {
+            return supported;
+        }
+    }
+}
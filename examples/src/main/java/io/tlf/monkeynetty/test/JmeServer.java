@@ -35,6 +35,8 @@ import io.tlf.monkeynetty.NetworkClient;
 import io.tlf.monkeynetty.NetworkServer;
 import io.tlf.monkeynetty.msg.NetworkMessage;
 import io.tlf.monkeynetty.server.NettyServer;
+import io.tlf.monkeynetty.test.messages.TestSerializableDataA;
+import io.tlf.monkeynetty.test.messages.TestSerializableDataB;
 import io.tlf.monkeynetty.test.messages.TestTCPBigMessageA;
 import io.tlf.monkeynetty.test.messages.TestTCPBigMessageB;
 import io.tlf.monkeynetty.test.messages.TestUDPBigMessageA;
@@ -49,6 +51,10 @@ public class JmeServer extends SimpleApplication {
     public void simpleInitApp() {
         NettyServer server = new NettyServer("test", true, 10000);
         server.setLogLevel(LogLevel.INFO);
+        server.registerClass(TestTCPMessage.class);
+        server.registerClass(TestUDPMessage.class);
+        server.registerClass(TestSerializableDataA.class);
+        server.registerClass(TestSerializableDataB.class);
         stateManager.attach(server);
         server.registerListener(new ConnectionListener() {
             @Override
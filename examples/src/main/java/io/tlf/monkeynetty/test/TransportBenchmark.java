@@ -0,0 +1,157 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.test;
+
+import com.jme3.app.SimpleApplication;
+import com.jme3.system.JmeContext;
+import io.tlf.monkeynetty.MessageListener;
+import io.tlf.monkeynetty.NetworkClient;
+import io.tlf.monkeynetty.NetworkServer;
+import io.tlf.monkeynetty.Transport;
+import io.tlf.monkeynetty.TransportOptions;
+import io.tlf.monkeynetty.client.NettyClient;
+import io.tlf.monkeynetty.msg.NetworkMessage;
+import io.tlf.monkeynetty.server.NettyServer;
+import io.tlf.monkeynetty.test.messages.TestTCPMessage;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the round trip latency of small messages over loopback between a <code>NettyServer</code> and
+ * <code>NettyClient</code> configured with each <code>TransportOptions</code> preset.
+ * Each request is sent as two TCP messages, flushed separately as a message and its payload often are,
+ * and the server replies once it has both. With Nagle's algorithm the second message waits for the first to be
+ * acknowledged, which the server delays, so the bulk preset shows the stall <code>TCP_NODELAY</code> avoids.
+ */
+public class TransportBenchmark {
+
+    private static final int ROUND_TRIPS = 200;
+    private static final int PORT = 10100;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, TransportOptions> presets = new LinkedHashMap<>();
+        presets.put("default", new TransportOptions());
+        presets.put("lan", TransportOptions.lan());
+        presets.put("wan latency", TransportOptions.wanLatency());
+        presets.put("bulk", TransportOptions.bulk());
+
+        SimpleApplication app = new SimpleApplication() {
+            @Override
+            public void simpleInitApp() {
+            }
+        };
+        app.setShowSettings(false);
+        app.start(JmeContext.Type.Headless);
+        try {
+            int port = PORT;
+            //Warm up before measuring
+            run(app, port++, new TransportOptions());
+            System.out.println("Transport: " + Transport.best());
+            System.out.printf("%12s %12s %12s %12s%n", "preset", "median us", "p99 us", "max us");
+            for (Map.Entry<String, TransportOptions> preset : presets.entrySet()) {
+                long[] result = run(app, port++, preset.getValue());
+                System.out.printf("%12s %12d %12d %12d%n", preset.getKey(), result[0], result[1], result[2]);
+            }
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * @param app     The application running the server and client
+     * @param port    The port for the server
+     * @param options The options to apply to both ends
+     * @return The median, 99th percentile and maximum round trip time in microseconds
+     */
+    private static long[] run(SimpleApplication app, int port, TransportOptions options) throws Exception {
+        NettyServer server = new NettyServer("benchmark", port);
+        server.setTransportOptions(options);
+        server.registerListener(new MessageListener() {
+            @Override
+            public void onMessage(NetworkMessage msg, NetworkServer server, NetworkClient client) {
+                //Reply once both halves of the request have arrived
+                Integer received = client.getUserData("received");
+                received = received == null ? 1 : received + 1;
+                client.setUserData("received", received);
+                if (received % 2 == 0) {
+                    client.send(msg);
+                }
+            }
+
+            @Override
+            public Class<? extends NetworkMessage>[] getSupportedMessages() {
+                return new Class[]{TestTCPMessage.class};
+            }
+        });
+
+        BlockingQueue<Long> replies = new ArrayBlockingQueue<>(ROUND_TRIPS);
+        NettyClient client = new NettyClient("benchmark", port, "localhost");
+        client.setTransportOptions(options);
+        client.registerListener(new MessageListener() {
+            @Override
+            public void onMessage(NetworkMessage msg, NetworkServer server, NetworkClient client) {
+                replies.add(System.nanoTime());
+            }
+
+            @Override
+            public Class<? extends NetworkMessage>[] getSupportedMessages() {
+                return new Class[]{TestTCPMessage.class};
+            }
+        });
+
+        app.enqueue(() -> app.getStateManager().attach(server)).get();
+        app.enqueue(() -> app.getStateManager().attach(client)).get();
+        long[] times = new long[ROUND_TRIPS];
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!client.isConnected()) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Client did not connect");
+                }
+                Thread.sleep(10);
+            }
+            for (int i = 0; i < ROUND_TRIPS; i++) {
+                long start = System.nanoTime();
+                client.send(new TestTCPMessage());
+                client.send(new TestTCPMessage());
+                Long end = replies.poll(5, TimeUnit.SECONDS);
+                if (end == null) {
+                    throw new IllegalStateException("No reply received");
+                }
+                times[i] = TimeUnit.NANOSECONDS.toMicros(end - start);
+            }
+        } finally {
+            app.enqueue(() -> app.getStateManager().detach(client)).get();
+            app.enqueue(() -> app.getStateManager().detach(server)).get();
+        }
+        Arrays.sort(times);
+        return new long[]{times[ROUND_TRIPS / 2], times[ROUND_TRIPS * 99 / 100], times[ROUND_TRIPS - 1]};
+    }
+}
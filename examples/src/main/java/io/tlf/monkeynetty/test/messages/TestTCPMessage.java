@@ -25,11 +25,13 @@ SOFTWARE.
 package io.tlf.monkeynetty.test.messages;
 
 import io.tlf.monkeynetty.NetworkProtocol;
+import io.tlf.monkeynetty.NetworkSerializable;
 import io.tlf.monkeynetty.msg.NetworkMessage;
 
 /**
  * @author Trevor Flynn trevorflynn@liquidcrystalstudios.com
  */
+@NetworkSerializable
 public class TestTCPMessage implements NetworkMessage {
 
     private int someValue;
@@ -0,0 +1,654 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a binary <code>MessageCodec</code> for each class annotated with
+ * <code>io.tlf.monkeynetty.NetworkSerializable</code>.
+ * <p>
+ * The generated codec is named <code>[ClassName]_MessageCodec</code> and placed in the package of the
+ * annotated class. Besides implementing <code>MessageCodec</code>, it exposes static
+ * <code>writeTo(message, ByteBuf)</code> and <code>readFrom(ByteBuf)</code> methods which are used
+ * directly when one annotated class is a field of another. A field value whose class is a subclass of the
+ * declared annotated class is written with java serialization, so it must be <code>Serializable</code>.
+ * <p>
+ * The processor does not depend on monkey-netty, types are referenced by name in the generated source.
+ */
+public class NetworkSerializableProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "io.tlf.monkeynetty.NetworkSerializable";
+    static final String CODEC_SUFFIX = "_MessageCodec";
+    private static final String BUFFERS = "io.tlf.monkeynetty.NetworkBuffers";
+    private static final String CORRUPTED = "io.netty.handler.codec.CorruptedFrameException";
+    /**
+     * Nested values are prefixed with their form. Subclasses of the declared type are not known to its codec,
+     * so they are written with java serialization instead of being truncated to the declared type.
+     */
+    private static final int NESTED_NULL = 0;
+    private static final int NESTED_CODEC = 1;
+    private static final int NESTED_SERIALIZED = 2;
+
+    private int locals;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@NetworkSerializable can only be applied to classes");
+                    continue;
+                }
+                try {
+                    generate((TypeElement) element);
+                } catch (InvalidElementException ex) {
+                    error(ex.element, ex.getMessage());
+                } catch (IOException ex) {
+                    error(element, "Failed to write codec: " + ex.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Internal use only
+     * Generate the codec source for an annotated class.
+     *
+     * @param type The annotated class
+     * @throws IOException If the source file could not be written
+     */
+    private void generate(TypeElement type) throws IOException {
+        String pkg = getPackage(type);
+        checkClass(type, pkg);
+
+        String messageType = type.getQualifiedName().toString();
+        String codecName = getCodecSimpleName(type);
+        List<FieldAccess> fields = getFields(type, pkg);
+
+        locals = 0;
+        StringBuilder write = new StringBuilder();
+        for (FieldAccess field : fields) {
+            writeValue(write, "        ", field.field.asType(), field.getter);
+        }
+        StringBuilder read = new StringBuilder();
+        for (FieldAccess field : fields) {
+            String value = readValue(read, "        ", field.field.asType());
+            read.append("        ").append(field.setter(value)).append(";\n");
+        }
+
+        StringBuilder src = new StringBuilder();
+        if (!pkg.isEmpty()) {
+            src.append("package ").append(pkg).append(";\n\n");
+        }
+        src.append("import io.netty.buffer.ByteBuf;\n");
+        src.append("import io.tlf.monkeynetty.MessageCodec;\n\n");
+        src.append("/**\n");
+        src.append(" * Binary codec for {@link ").append(messageType).append("}.\n");
+        src.append(" * Generated by ").append(getClass().getName()).append(", do not edit.\n");
+        src.append(" */\n");
+        src.append("public final class ").append(codecName).append(" implements MessageCodec<").append(messageType).append("> {\n\n");
+        src.append("    @Override\n");
+        src.append("    public void encode(").append(messageType).append(" message, ByteBuf out) throws Exception {\n");
+        src.append("        writeTo(message, out);\n");
+        src.append("    }\n\n");
+        src.append("    @Override\n");
+        src.append("    public ").append(messageType).append(" decode(ByteBuf in) throws Exception {\n");
+        src.append("        return readFrom(in);\n");
+        src.append("    }\n\n");
+        src.append("    public static void writeTo(").append(messageType).append(" message, ByteBuf out) throws Exception {\n");
+        src.append(write);
+        src.append("    }\n\n");
+        src.append("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        src.append("    public static ").append(messageType).append(" readFrom(ByteBuf in) throws Exception {\n");
+        src.append("        ").append(messageType).append(" message = new ").append(messageType).append("();\n");
+        src.append(read);
+        src.append("        return message;\n");
+        src.append("    }\n");
+        src.append("}\n");
+
+        String qualifiedName = pkg.isEmpty() ? codecName : pkg + "." + codecName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(src.toString());
+        }
+    }
+
+    /**
+     * Internal use only
+     * Ensure the annotated class can be constructed by the generated codec.
+     *
+     * @param type The annotated class
+     * @param pkg  The package of the generated codec
+     */
+    private void checkClass(TypeElement type, String pkg) {
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new InvalidElementException(type, "@NetworkSerializable class must not be abstract");
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new InvalidElementException(type, "@NetworkSerializable class must not be generic");
+        }
+        for (Element enclosing = type; enclosing.getKind().isClass(); enclosing = enclosing.getEnclosingElement()) {
+            TypeElement current = (TypeElement) enclosing;
+            if (current.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new InvalidElementException(type, "@NetworkSerializable class must not be private");
+            }
+            if (current.getNestingKind() == NestingKind.MEMBER && !current.getModifiers().contains(Modifier.STATIC)) {
+                throw new InvalidElementException(type, "@NetworkSerializable class must not be an inner class, make it static");
+            }
+            if (current.getNestingKind() == NestingKind.LOCAL || current.getNestingKind() == NestingKind.ANONYMOUS) {
+                throw new InvalidElementException(type, "@NetworkSerializable class must not be a local class");
+            }
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && isAccessible(constructor, pkg)) {
+                return;
+            }
+        }
+        throw new InvalidElementException(type, "@NetworkSerializable class must have a no-arg constructor that is not private");
+    }
+
+    /**
+     * Internal use only
+     * Collect the transported fields of the class and its super classes, super class fields first.
+     *
+     * @param type The annotated class
+     * @param pkg  The package of the generated codec
+     * @return The transported fields and how to access them
+     */
+    private List<FieldAccess> getFields(TypeElement type, String pkg) {
+        List<TypeElement> hierarchy = new ArrayList<>();
+        for (TypeElement current = type; current != null; current = getSuperclass(current)) {
+            if (current.getQualifiedName().contentEquals("java.lang.Object")) {
+                break;
+            }
+            hierarchy.add(0, current);
+        }
+        List<FieldAccess> fields = new ArrayList<>();
+        for (TypeElement current : hierarchy) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                checkType(field, field.asType());
+                fields.add(getAccess(type, field, pkg));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Internal use only
+     * Find how the generated code can read and write a field.
+     * Direct field access is preferred, otherwise a getter and setter pair is required.
+     *
+     * @param type  The annotated class
+     * @param field The field
+     * @param pkg   The package of the generated codec
+     * @return The field access
+     */
+    private FieldAccess getAccess(TypeElement type, VariableElement field, String pkg) {
+        String name = field.getSimpleName().toString();
+        if (isAccessible(field, pkg) && !field.getModifiers().contains(Modifier.FINAL)) {
+            return new FieldAccess(field, "message." + name, "message." + name + " = %s");
+        }
+        String property = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        ExecutableElement getter = null;
+        ExecutableElement setter = null;
+        List<ExecutableElement> methods = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type));
+        for (ExecutableElement method : methods) {
+            if (method.getModifiers().contains(Modifier.STATIC) || !isAccessible(method, pkg)) {
+                continue;
+            }
+            String methodName = method.getSimpleName().toString();
+            boolean booleanField = field.asType().getKind() == TypeKind.BOOLEAN;
+            if (method.getParameters().isEmpty()
+                    && (methodName.equals("get" + property) || (booleanField && methodName.equals("is" + property)))
+                    && processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+                getter = method;
+            } else if (methodName.equals("set" + property) && method.getParameters().size() == 1
+                    && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), field.asType())) {
+                setter = method;
+            }
+        }
+        if (getter == null || setter == null) {
+            throw new InvalidElementException(field, "Field " + name + " of @NetworkSerializable class " + type.getQualifiedName()
+                    + " must be non-private and non-final, or have a getter and setter");
+        }
+        return new FieldAccess(field, "message." + getter.getSimpleName() + "()", "message." + setter.getSimpleName() + "(%s)");
+    }
+
+    /**
+     * Internal use only
+     * Reject field types that can not be written in generated source.
+     *
+     * @param field The field
+     * @param type  The type of the field
+     */
+    private void checkType(VariableElement field, TypeMirror type) {
+        switch (type.getKind()) {
+            case TYPEVAR:
+            case WILDCARD:
+            case INTERSECTION:
+            case UNION:
+            case ERROR:
+                throw new InvalidElementException(field, "Unsupported type " + type + " for field " + field.getSimpleName());
+            case ARRAY:
+                checkType(field, ((ArrayType) type).getComponentType());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Internal use only
+     * Append the statements writing a value to the <code>out</code> buffer.
+     *
+     * @param src    The source to append to
+     * @param indent The indent of the statements
+     * @param type   The type of the value
+     * @param expr   The expression of the value, evaluated once
+     */
+    private void writeValue(StringBuilder src, String indent, TypeMirror type, String expr) {
+        if (type.getKind().isPrimitive()) {
+            src.append(indent).append("out.").append(primitiveWriter(type.getKind())).append("(").append(expr).append(");\n");
+            return;
+        }
+        String local = "w" + (locals++);
+        src.append(indent).append(type).append(" ").append(local).append(" = ").append(expr).append(";\n");
+        switch (getValueKind(type)) {
+            case BOXED:
+                PrimitiveType primitive = processingEnv.getTypeUtils().unboxedType(type);
+                writeNullable(src, indent, local, indent + "    out." + primitiveWriter(primitive.getKind()) + "(" + local + ");\n");
+                break;
+            case STRING:
+                src.append(indent).append(BUFFERS).append(".writeString(out, ").append(local).append(");\n");
+                break;
+            case ENUM:
+                src.append(indent).append(BUFFERS).append(".writeVarInt(out, ").append(local).append(" == null ? 0 : ")
+                        .append(local).append(".ordinal() + 1);\n");
+                break;
+            case NESTED:
+                src.append(indent).append("if (").append(local).append(" == null) {\n");
+                src.append(indent).append("    out.writeByte(").append(NESTED_NULL).append(");\n");
+                src.append(indent).append("} else if (").append(local).append(".getClass() == ")
+                        .append(processingEnv.getTypeUtils().erasure(type)).append(".class) {\n");
+                src.append(indent).append("    out.writeByte(").append(NESTED_CODEC).append(");\n");
+                src.append(indent).append("    ").append(getNestedCodec(type)).append(".writeTo(").append(local).append(", out);\n");
+                src.append(indent).append("} else {\n");
+                src.append(indent).append("    out.writeByte(").append(NESTED_SERIALIZED).append(");\n");
+                src.append(indent).append("    ").append(BUFFERS).append(".writeObject(out, ").append(local).append(");\n");
+                src.append(indent).append("}\n");
+                break;
+            case ARRAY:
+                TypeMirror component = ((ArrayType) type).getComponentType();
+                src.append(indent).append("if (").append(local).append(" == null) {\n");
+                src.append(indent).append("    ").append(BUFFERS).append(".writeVarInt(out, 0);\n");
+                src.append(indent).append("} else {\n");
+                src.append(indent).append("    ").append(BUFFERS).append(".writeVarInt(out, ").append(local).append(".length + 1);\n");
+                if (component.getKind() == TypeKind.BYTE) {
+                    src.append(indent).append("    out.writeBytes(").append(local).append(");\n");
+                } else {
+                    String index = "i" + (locals++);
+                    src.append(indent).append("    for (int ").append(index).append(" = 0; ").append(index).append(" < ")
+                            .append(local).append(".length; ").append(index).append("++) {\n");
+                    writeValue(src, indent + "        ", component, local + "[" + index + "]");
+                    src.append(indent).append("    }\n");
+                }
+                src.append(indent).append("}\n");
+                break;
+            default:
+                src.append(indent).append(BUFFERS).append(".writeObject(out, ").append(local).append(");\n");
+                break;
+        }
+    }
+
+    /**
+     * Internal use only
+     * Append the statements reading a value from the <code>in</code> buffer.
+     *
+     * @param src    The source to append to
+     * @param indent The indent of the statements
+     * @param type   The type of the value
+     * @return The name of the local variable holding the value
+     */
+    private String readValue(StringBuilder src, String indent, TypeMirror type) {
+        String local = "r" + (locals++);
+        if (type.getKind().isPrimitive()) {
+            src.append(indent).append(type).append(" ").append(local).append(" = in.")
+                    .append(primitiveReader(type.getKind())).append("();\n");
+            return local;
+        }
+        String declared = type.toString();
+        switch (getValueKind(type)) {
+            case BOXED:
+                PrimitiveType primitive = processingEnv.getTypeUtils().unboxedType(type);
+                src.append(indent).append(declared).append(" ").append(local).append(" = null;\n");
+                src.append(indent).append("if (in.readBoolean()) {\n");
+                src.append(indent).append("    ").append(local).append(" = in.").append(primitiveReader(primitive.getKind())).append("();\n");
+                src.append(indent).append("}\n");
+                break;
+            case STRING:
+                src.append(indent).append(declared).append(" ").append(local).append(" = ").append(BUFFERS).append(".readString(in);\n");
+                break;
+            case ENUM:
+                String ordinal = "o" + (locals++);
+                src.append(indent).append("int ").append(ordinal).append(" = ").append(BUFFERS).append(".readVarInt(in);\n");
+                src.append(indent).append("if (").append(ordinal).append(" < 0 || ").append(ordinal).append(" > ")
+                        .append(declared).append(".values().length) {\n");
+                src.append(indent).append("    throw new ").append(CORRUPTED).append("(\"Invalid ordinal \" + ").append(ordinal)
+                        .append(" + \" for ").append(declared).append("\");\n");
+                src.append(indent).append("}\n");
+                src.append(indent).append(declared).append(" ").append(local).append(" = ").append(ordinal).append(" == 0 ? null : ")
+                        .append(declared).append(".values()[").append(ordinal).append(" - 1];\n");
+                break;
+            case NESTED:
+                String form = "n" + (locals++);
+                src.append(indent).append(declared).append(" ").append(local).append(" = null;\n");
+                src.append(indent).append("int ").append(form).append(" = in.readUnsignedByte();\n");
+                src.append(indent).append("if (").append(form).append(" == ").append(NESTED_CODEC).append(") {\n");
+                src.append(indent).append("    ").append(local).append(" = ").append(getNestedCodec(type)).append(".readFrom(in);\n");
+                src.append(indent).append("} else if (").append(form).append(" == ").append(NESTED_SERIALIZED).append(") {\n");
+                src.append(indent).append("    ").append(local).append(" = (").append(declared).append(") ")
+                        .append(BUFFERS).append(".readObject(in);\n");
+                src.append(indent).append("}\n");
+                break;
+            case ARRAY:
+                TypeMirror component = ((ArrayType) type).getComponentType();
+                String length = "l" + (locals++);
+                src.append(indent).append("int ").append(length).append(" = ").append(BUFFERS).append(".readVarInt(in) - 1;\n");
+                src.append(indent).append(declared).append(" ").append(local).append(" = null;\n");
+                int size = minimumSize(component);
+                src.append(indent).append("if (").append(length).append(" < -1 || ").append(length).append(" > in.readableBytes()")
+                        .append(size == 1 ? "" : " / " + size).append(") {\n");
+                src.append(indent).append("    throw new ").append(CORRUPTED).append("(\"Invalid array length \" + ").append(length).append(");\n");
+                src.append(indent).append("}\n");
+                src.append(indent).append("if (").append(length).append(" >= 0) {\n");
+                src.append(indent).append("    ").append(local).append(" = ").append(newArray((ArrayType) type, length)).append(";\n");
+                if (component.getKind() == TypeKind.BYTE) {
+                    src.append(indent).append("    in.readBytes(").append(local).append(");\n");
+                } else {
+                    String index = "i" + (locals++);
+                    src.append(indent).append("    for (int ").append(index).append(" = 0; ").append(index).append(" < ")
+                            .append(length).append("; ").append(index).append("++) {\n");
+                    String element = readValue(src, indent + "        ", component);
+                    src.append(indent).append("        ").append(local).append("[").append(index).append("] = ").append(element).append(";\n");
+                    src.append(indent).append("    }\n");
+                }
+                src.append(indent).append("}\n");
+                break;
+            default:
+                src.append(indent).append(declared).append(" ").append(local).append(" = (").append(declared).append(") ")
+                        .append(BUFFERS).append(".readObject(in);\n");
+                break;
+        }
+        return local;
+    }
+
+    private void writeNullable(StringBuilder src, String indent, String local, String write) {
+        src.append(indent).append("if (").append(local).append(" == null) {\n");
+        src.append(indent).append("    out.writeBoolean(false);\n");
+        src.append(indent).append("} else {\n");
+        src.append(indent).append("    out.writeBoolean(true);\n");
+        src.append(write);
+        src.append(indent).append("}\n");
+    }
+
+    /**
+     * Internal use only
+     * Build an array creation expression, generic component types are created raw.
+     *
+     * @param type   The array type
+     * @param length The expression of the array length
+     * @return The array creation expression
+     */
+    private String newArray(ArrayType type, String length) {
+        StringBuilder dims = new StringBuilder("[").append(length).append("]");
+        TypeMirror component = type.getComponentType();
+        while (component.getKind() == TypeKind.ARRAY) {
+            dims.append("[]");
+            component = ((ArrayType) component).getComponentType();
+        }
+        return "new " + processingEnv.getTypeUtils().erasure(component) + dims;
+    }
+
+    /**
+     * Internal use only
+     * The fewest bytes a value of the type is written with, used to reject array lengths a frame can not hold
+     * before the array is allocated.
+     *
+     * @param type The type of the value
+     * @return The minimum number of bytes of a written value
+     */
+    private int minimumSize(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case SHORT:
+            case CHAR:
+                return 2;
+            case INT:
+            case FLOAT:
+                return 4;
+            case LONG:
+            case DOUBLE:
+                return 8;
+            default:
+                return getValueKind(type) == ValueKind.OBJECT ? 4 : 1;
+        }
+    }
+
+    private ValueKind getValueKind(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return ValueKind.ARRAY;
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return ValueKind.OBJECT;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        if (element.getQualifiedName().contentEquals("java.lang.String")) {
+            return ValueKind.STRING;
+        }
+        if (element.getKind() == ElementKind.ENUM) {
+            return ValueKind.ENUM;
+        }
+        if (isAnnotated(element)) {
+            return ValueKind.NESTED;
+        }
+        try {
+            processingEnv.getTypeUtils().unboxedType(type);
+            return ValueKind.BOXED;
+        } catch (IllegalArgumentException ex) {
+            return ValueKind.OBJECT;
+        }
+    }
+
+    private String getNestedCodec(TypeMirror type) {
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        String pkg = getPackage(element);
+        return (pkg.isEmpty() ? "" : pkg + ".") + getCodecSimpleName(element);
+    }
+
+    private boolean isAnnotated(TypeElement element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(ANNOTATION)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getCodecSimpleName(TypeElement type) {
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        return binaryName.substring(binaryName.lastIndexOf('.') + 1).replace('$', '_') + CODEC_SUFFIX;
+    }
+
+    private String getPackage(Element element) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(element);
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    private TypeElement getSuperclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    private boolean isAccessible(Element element, String pkg) {
+        Set<Modifier> modifiers = element.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        return !modifiers.contains(Modifier.PRIVATE) && getPackage(element).equals(pkg);
+    }
+
+    private static String primitiveWriter(TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN:
+                return "writeBoolean";
+            case BYTE:
+                return "writeByte";
+            case SHORT:
+                return "writeShort";
+            case CHAR:
+                return "writeChar";
+            case INT:
+                return "writeInt";
+            case LONG:
+                return "writeLong";
+            case FLOAT:
+                return "writeFloat";
+            case DOUBLE:
+                return "writeDouble";
+            default:
+                throw new IllegalArgumentException("Not a primitive: " + kind);
+        }
+    }
+
+    private static String primitiveReader(TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN:
+                return "readBoolean";
+            case BYTE:
+                return "readByte";
+            case SHORT:
+                return "readShort";
+            case CHAR:
+                return "readChar";
+            case INT:
+                return "readInt";
+            case LONG:
+                return "readLong";
+            case FLOAT:
+                return "readFloat";
+            case DOUBLE:
+                return "readDouble";
+            default:
+                throw new IllegalArgumentException("Not a primitive: " + kind);
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private enum ValueKind {
+        BOXED, STRING, ENUM, NESTED, ARRAY, OBJECT
+    }
+
+    /**
+     * How the generated code reads and writes a field.
+     */
+    private static class FieldAccess {
+        private final VariableElement field;
+        private final String getter;
+        private final String setter;
+
+        private FieldAccess(VariableElement field, String getter, String setter) {
+            this.field = field;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        private String setter(String value) {
+            return String.format(setter, value);
+        }
+    }
+
+    /**
+     * Thrown when an annotated class or one of its fields can not be supported by a generated codec.
+     */
+    private static class InvalidElementException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Element element;
+
+        private InvalidElementException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+}
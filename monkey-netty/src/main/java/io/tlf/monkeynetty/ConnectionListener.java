@@ -42,4 +42,17 @@ public interface ConnectionListener {
      * @param client The client that disconnected.
      */
     public void onDisconnect(NetworkClient client);
+
+    /**
+     * Called when messages to a client start to queue because it is not reading them fast enough.
+     * The TCP and UDP channels are tracked separately, and each is reported again only after the messages
+     * queued on it have drained.
+     * Unreliable messages are dropped until then, see <code>OutboundLimits</code>.
+     * This may be called from any thread sending to the client.
+     *
+     * @param client   The client that is not keeping up.
+     * @param protocol The protocol of the message that could not be written immediately.
+     */
+    public default void onSlowConsumer(NetworkClient client, NetworkProtocol protocol) {
+    }
 }
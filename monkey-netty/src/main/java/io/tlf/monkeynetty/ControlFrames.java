@@ -0,0 +1,156 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.tlf.monkeynetty.msg.ConnectionEstablishedMessage;
+import io.tlf.monkeynetty.msg.PingMessage;
+import io.tlf.monkeynetty.msg.UdpConHashMessage;
+
+import java.io.StreamCorruptedException;
+import java.util.Base64;
+
+/**
+ * Internal use only
+ * ControlFrames encodes the messages the server and client exchange to run the connection with fixed binary layouts,
+ * instead of java serialization. A control frame is a frame of type <code>NetworkMessageEncoder.TYPE_CONTROL</code>
+ * with a body of a one byte opcode and the fields for the opcode:
+ * <ul>
+ * <li><code>OP_PING</code> has no body</li>
+ * <li><code>OP_ESTABLISHED</code> has no body</li>
+ * <li><code>OP_UDP_HASH</code> is a flags byte, set to 1 when sent by the server, the length of the cookie in a byte,
+ * and the cookie, which is sent as its Base64 text in <code>UdpConHashMessage</code></li>
+ * </ul>
+ * Frames without a body are encoded once and shared, so sending them allocates nothing.
+ */
+public final class ControlFrames {
+
+    /**
+     * Keeps the connection alive when nothing else has been sent
+     */
+    public static final int OP_PING = 0;
+
+    /**
+     * <code>ConnectionEstablishedMessage</code>
+     */
+    public static final int OP_ESTABLISHED = 1;
+
+    /**
+     * <code>UdpConHashMessage</code>
+     */
+    public static final int OP_UDP_HASH = 2;
+
+    private static final int FLAG_SERVER = 1;
+    private static final ByteBuf PING = shared(OP_PING);
+    private static final ByteBuf ESTABLISHED = shared(OP_ESTABLISHED);
+
+    private ControlFrames() {
+    }
+
+    /**
+     * @return A ping frame, which does not need to be released
+     */
+    public static ByteBuf ping() {
+        return PING.duplicate();
+    }
+
+    /**
+     * @return A <code>ConnectionEstablishedMessage</code> frame, which does not need to be released
+     */
+    public static ByteBuf established() {
+        return ESTABLISHED.duplicate();
+    }
+
+    /**
+     * @param msg The message
+     * @return If the message is sent as a control frame
+     */
+    static boolean isControl(Object msg) {
+        return msg instanceof PingMessage || msg instanceof ConnectionEstablishedMessage || msg instanceof UdpConHashMessage;
+    }
+
+    /**
+     * Internal use only
+     * Write the opcode and fields of a control message, after the frame header.
+     *
+     * @param msg The control message
+     * @param out The buffer to write to
+     */
+    static void encode(Object msg, ByteBuf out) {
+        if (msg instanceof PingMessage) {
+            out.writeByte(OP_PING);
+        } else if (msg instanceof ConnectionEstablishedMessage) {
+            out.writeByte(OP_ESTABLISHED);
+        } else {
+            UdpConHashMessage hash = (UdpConHashMessage) msg;
+            byte[] cookie = Base64.getDecoder().decode(hash.getUdpHash());
+            out.writeByte(OP_UDP_HASH);
+            out.writeByte(hash.getProtocol() == NetworkProtocol.TCP ? FLAG_SERVER : 0);
+            out.writeByte(cookie.length);
+            out.writeBytes(cookie);
+        }
+    }
+
+    /**
+     * Internal use only
+     * Read the opcode and fields of a control frame.
+     *
+     * @param in The buffer to read from, after the frame header
+     * @return The message, or null for a ping, which only keeps the connection alive
+     * @throws StreamCorruptedException If the opcode is unknown
+     */
+    static Object decode(ByteBuf in) throws StreamCorruptedException {
+        int opcode = in.readUnsignedByte();
+        switch (opcode) {
+            case OP_PING:
+                return null;
+            case OP_ESTABLISHED:
+                return new ConnectionEstablishedMessage();
+            case OP_UDP_HASH:
+                boolean server = (in.readUnsignedByte() & FLAG_SERVER) != 0;
+                byte[] cookie = new byte[in.readUnsignedByte()];
+                in.readBytes(cookie);
+                return new UdpConHashMessage(Base64.getEncoder().encodeToString(cookie), server);
+            default:
+                throw new StreamCorruptedException("Unexpected control frame opcode: " + opcode);
+        }
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param opcode The opcode of the frame
+     * @return A read only frame that ignores being released
+     */
+    private static ByteBuf shared(int opcode) {
+        ByteBuf frame = Unpooled.directBuffer(4)
+                .writeByte(3)
+                .writeByte(NetworkMessageEncoder.TYPE_CONTROL)
+                .writeByte(0)
+                .writeByte(opcode);
+        return Unpooled.unreleasableBuffer(frame.asReadOnly());
+    }
+}
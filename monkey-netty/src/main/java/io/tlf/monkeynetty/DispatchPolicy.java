@@ -0,0 +1,52 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+/**
+ * Dispatch Policy is used when registering a message listener to determine where the listener is called.
+ * Listeners that block, such as those accessing a database, should not use <code>INLINE</code>,
+ * as they will delay every other connection handled by the same thread.
+ */
+public enum DispatchPolicy {
+    /**
+     * Call the listener on the thread delivering the message, this is the Netty.IO thread
+     * or the jME update thread depending on the <code>DispatchMode</code>
+     */
+    INLINE,
+
+    /**
+     * Call the listener on a new virtual thread for each message.
+     * When virtual threads are not available, a shared pool of daemon threads is used instead.
+     * Messages may be handled concurrently and out of order.
+     */
+    VIRTUAL_THREAD,
+
+    /**
+     * Call the listener on one of a shared set of threads, selected by the client the message was received from.
+     * Messages from the same client are handled one at a time, in the order they were delivered.
+     * When the listeners fall more than 4096 messages behind on a thread, further messages for that thread are dropped.
+     */
+    ORDERED
+}
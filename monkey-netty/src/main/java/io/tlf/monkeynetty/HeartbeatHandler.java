@@ -0,0 +1,173 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Internal use only
+ * HeartbeatHandler keeps a TCP connection alive and detects dead peers, replacing an <code>IdleStateHandler</code>.
+ * It records when the channel last read and wrote, and checks each channel on a timing wheel shared by all
+ * connections in the JVM, instead of scheduling and rescheduling event loop tasks for every channel.
+ * A channel is only checked when its next deadline is due, so reading and writing costs no more than recording the time.
+ * <p>
+ * When nothing has been written for the writer idle time, a ping control frame is sent.
+ * When nothing has been read for the reader idle time, <code>IdleStateEvent.READER_IDLE_STATE_EVENT</code>
+ * is fired through the pipeline on the channel's event loop, and again each reader idle time after.
+ * The handler should be added before the decoder, so pings are seen as reads.
+ */
+public class HeartbeatHandler extends ChannelDuplexHandler {
+
+    private static final HashedWheelTimer WHEEL = new HashedWheelTimer(
+            new DefaultThreadFactory("monkey-netty-heartbeat", true), 100, TimeUnit.MILLISECONDS);
+
+    private final long readerIdle;
+    private final long writerIdle;
+    private volatile long lastRead;
+    private volatile long lastWrite;
+    private volatile Timeout timeout;
+    private volatile boolean active = false;
+
+    /**
+     * @param readerIdle The time without reading after which the peer is considered dead
+     * @param writerIdle The time without writing after which a ping is sent
+     * @param unit       The unit of the idle times
+     */
+    public HeartbeatHandler(long readerIdle, long writerIdle, TimeUnit unit) {
+        if (readerIdle <= 0 || writerIdle <= 0) {
+            throw new IllegalArgumentException("Idle times must be positive");
+        }
+        this.readerIdle = unit.toNanos(readerIdle);
+        this.writerIdle = unit.toNanos(writerIdle);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        if (ctx.channel().isActive() && ctx.channel().isRegistered()) {
+            start(ctx);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        stop();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        start(ctx);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        stop();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        lastRead = System.nanoTime();
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        lastWrite = System.nanoTime();
+        ctx.write(msg, promise);
+    }
+
+    /**
+     * Internal use only
+     * Start checking the channel.
+     *
+     * @param ctx The context of the handler
+     */
+    private void start(ChannelHandlerContext ctx) {
+        if (active) {
+            return;
+        }
+        active = true;
+        long now = System.nanoTime();
+        lastRead = now;
+        lastWrite = now;
+        schedule(ctx, Math.min(readerIdle, writerIdle));
+    }
+
+    /**
+     * Internal use only
+     * Stop checking the channel.
+     */
+    private void stop() {
+        active = false;
+        Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param ctx   The context of the handler
+     * @param delay The delay in nanoseconds until the channel is checked
+     */
+    private void schedule(ChannelHandlerContext ctx, long delay) {
+        timeout = WHEEL.newTimeout(t -> check(ctx), delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Internal use only
+     * Check the channel from the timing wheel, pinging the peer or reporting it dead when a deadline has passed,
+     * then check again at the next deadline.
+     *
+     * @param ctx The context of the handler
+     */
+    private void check(ChannelHandlerContext ctx) {
+        if (!active) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastWrite >= writerIdle) {
+            lastWrite = now;
+            ctx.writeAndFlush(ControlFrames.ping(), ctx.voidPromise());
+        }
+        if (now - lastRead >= readerIdle) {
+            lastRead = now;
+            ctx.executor().execute(() -> ctx.fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT));
+        }
+        long nextWrite = writerIdle - (now - lastWrite);
+        long nextRead = readerIdle - (now - lastRead);
+        schedule(ctx, Math.max(1, Math.min(nextWrite, nextRead)));
+    }
+}
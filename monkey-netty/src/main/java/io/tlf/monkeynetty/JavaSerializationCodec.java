@@ -0,0 +1,92 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * The default message codec, converts messages using java serialization.
+ * Utilizes NetworkObjectOutputStream and NetworkObjectInputStream, so classes registered
+ * with the NetworkRegistrar are sent as their UID instead of a full class descriptor.
+ */
+public class JavaSerializationCodec implements MessageCodec<Serializable> {
+
+    private final MessageClassResolver classResolver;
+    private final NetworkRegistrar registrar;
+
+    /**
+     * Creates a codec that only knows the built-in registered classes.
+     *
+     * @param classResolver The class resolver used to load the classes of decoded objects
+     */
+    public JavaSerializationCodec(MessageClassResolver classResolver) {
+        this(classResolver, new NetworkRegistrar());
+    }
+
+    /**
+     * @param classResolver The class resolver used to load the classes of decoded objects
+     * @param registrar     The registrar shared with the remote side
+     */
+    public JavaSerializationCodec(MessageClassResolver classResolver, NetworkRegistrar registrar) {
+        this.classResolver = classResolver;
+        this.registrar = registrar;
+    }
+
+    @Override
+    public void encode(Serializable message, ByteBuf out) throws Exception {
+        ByteBufOutputStream bout = new ByteBufOutputStream(out);
+        ObjectOutputStream oout = null;
+        try {
+            oout = new NetworkObjectOutputStream(bout, registrar);
+            oout.writeObject(message);
+            oout.flush();
+        } catch (NotSerializableException nsex) {
+            throw new NetworkMessageException("Non-Serializable object " + nsex.getMessage() + " found in message " + message.getClass().getName(), nsex);
+        } finally {
+            if (oout != null) {
+                oout.close();
+            } else {
+                bout.close();
+            }
+        }
+    }
+
+    @Override
+    public Serializable decode(ByteBuf in) throws Exception {
+        ObjectInputStream ois = new NetworkObjectInputStream(new ByteBufInputStream(in), classResolver, registrar);
+        try {
+            return (Serializable) ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+}
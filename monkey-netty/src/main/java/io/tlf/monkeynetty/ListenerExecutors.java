@@ -0,0 +1,144 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Internal use only
+ * The executors used by a <code>MessageDispatcher</code> to call message listeners registered with a
+ * <code>DispatchPolicy</code> other than <code>DispatchPolicy.INLINE</code>.
+ * The executors are created on first use, use daemon threads, and are stopped by <code>shutdown</code>.
+ * Each ordered executor queues at most <code>ORDERED_QUEUE_CAPACITY</code> tasks, further tasks are dropped.
+ */
+final class ListenerExecutors {
+
+    private final static Logger LOGGER = Logger.getLogger(ListenerExecutors.class.getName());
+
+    /**
+     * The maximum number of tasks waiting on each ordered executor.
+     */
+    static final int ORDERED_QUEUE_CAPACITY = 4096;
+
+    private volatile ExecutorService unordered;
+    private volatile ExecutorService[] ordered;
+
+    /**
+     * Run a task on a new virtual thread, or on a cached daemon thread pool if virtual threads are not available.
+     *
+     * @param task The task to run
+     */
+    void executeUnordered(Runnable task) {
+        ExecutorService executor = unordered;
+        if (executor == null) {
+            synchronized (this) {
+                executor = unordered;
+                if (executor == null) {
+                    unordered = executor = createUnordered();
+                }
+            }
+        }
+        execute(executor, task);
+    }
+
+    /**
+     * Run a task on the single thread executor for the key, tasks with the same key run in submission order.
+     *
+     * @param key  The key tasks are ordered by
+     * @param task The task to run
+     */
+    void executeOrdered(Object key, Runnable task) {
+        ExecutorService[] stripes = ordered;
+        if (stripes == null) {
+            synchronized (this) {
+                stripes = ordered;
+                if (stripes == null) {
+                    ordered = stripes = createOrdered();
+                }
+            }
+        }
+        execute(stripes[(System.identityHashCode(key) & Integer.MAX_VALUE) % stripes.length], task);
+    }
+
+    /**
+     * Stop the executors. Tasks that have not started are discarded.
+     * The executors are created again if another task is run.
+     */
+    synchronized void shutdown() {
+        if (unordered != null) {
+            unordered.shutdownNow();
+            unordered = null;
+        }
+        if (ordered != null) {
+            for (ExecutorService stripe : ordered) {
+                stripe.shutdownNow();
+            }
+            ordered = null;
+        }
+    }
+
+    private static void execute(ExecutorService executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            if (executor.isShutdown()) {
+                LOGGER.log(Level.FINE, "Message listener executor is stopped, dropping message");
+            } else {
+                LOGGER.log(Level.WARNING, "Message listeners are falling behind, dropping message");
+            }
+        }
+    }
+
+    private static ExecutorService createUnordered() {
+        try {
+            //Virtual threads are available from Java 21
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            LOGGER.log(Level.FINE, "Virtual threads are not available, using a thread pool for message listeners");
+            return Executors.newCachedThreadPool(new DefaultThreadFactory("monkey-netty-listener", true));
+        }
+    }
+
+    private static ExecutorService[] createOrdered() {
+        DefaultThreadFactory threads = new DefaultThreadFactory("monkey-netty-ordered", true);
+        ExecutorService[] stripes = new ExecutorService[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(ORDERED_QUEUE_CAPACITY), threads);
+        }
+        return stripes;
+    }
+}
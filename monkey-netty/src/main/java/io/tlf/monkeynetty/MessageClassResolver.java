@@ -0,0 +1,63 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+/**
+ * Resolves the class of a received message or object from its name.
+ * <p>
+ * Netty.IO's <code>ClassResolver</code> is deprecated along with its serialization codecs, so monkey-netty uses
+ * this interface instead. <code>of</code> adapts an existing Netty.IO class resolver.
+ */
+@FunctionalInterface
+public interface MessageClassResolver {
+
+    /**
+     * @param className The binary name of the class
+     * @return The class
+     * @throws ClassNotFoundException If the class could not be found
+     */
+    public Class<?> resolve(String className) throws ClassNotFoundException;
+
+    /**
+     * Creates a resolver that loads classes without initializing them, using the context class loader of the
+     * calling thread, or the class loader of monkey-netty if there is none. Resolved classes are not cached.
+     *
+     * @return The resolver
+     */
+    public static MessageClassResolver defaultResolver() {
+        ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+        ClassLoader loader = contextLoader != null ? contextLoader : MessageClassResolver.class.getClassLoader();
+        return className -> Class.forName(className, false, loader);
+    }
+
+    /**
+     * @param resolver The Netty.IO class resolver
+     * @return A resolver using the Netty.IO class resolver
+     */
+    @SuppressWarnings("deprecation")
+    public static MessageClassResolver of(io.netty.handler.codec.serialization.ClassResolver resolver) {
+        return resolver::resolve;
+    }
+}
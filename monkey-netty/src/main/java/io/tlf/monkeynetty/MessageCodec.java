@@ -0,0 +1,59 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A MessageCodec converts a message to and from its binary form on the wire.
+ * By default all messages are transported using java serialization (see <code>JavaSerializationCodec</code>).
+ * A codec can be registered for a specific message class with the server and client to replace
+ * java serialization for that class, allowing frequently sent messages to use a compact binary form.
+ * <p>
+ * A single codec instance is shared between all connections, implementations must be thread safe.
+ *
+ * @param <T> The message type handled by the codec
+ */
+public interface MessageCodec<T> {
+
+    /**
+     * Write the message into the buffer.
+     *
+     * @param message The message to encode
+     * @param out     The buffer to write the message to
+     * @throws Exception If the message could not be encoded
+     */
+    public void encode(T message, ByteBuf out) throws Exception;
+
+    /**
+     * Read a message from the buffer.
+     * The codec must read exactly the bytes written by <code>encode</code>.
+     *
+     * @param in The buffer to read the message from
+     * @return The decoded message
+     * @throws Exception If the message could not be decoded
+     */
+    public T decode(ByteBuf in) throws Exception;
+}
@@ -0,0 +1,116 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.tlf.monkeynetty.msg.NetworkMessage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MessageCodecRegistry keeps a record of message classes to the codec used to transport them.
+ * Messages without a registered codec use the codec generated for them when annotated with
+ * <code>NetworkSerializable</code>, otherwise they are transported using java serialization.
+ * Codecs are matched on the exact class of the message, subclasses must be registered separately.
+ * The same codecs must be registered on both the server and the client.
+ */
+public class MessageCodecRegistry {
+
+    private final static Logger LOGGER = Logger.getLogger(MessageCodecRegistry.class.getName());
+
+    /**
+     * The codec generated for each class, or null when there is none.
+     * A missing generated codec is logged once and cached as null, so its class falls back to java serialization.
+     */
+    private static final ClassValue<MessageCodec<?>> GENERATED_CODECS = new ClassValue<MessageCodec<?>>() {
+        @Override
+        protected MessageCodec<?> computeValue(Class<?> type) {
+            if (!type.isAnnotationPresent(NetworkSerializable.class)) {
+                return null;
+            }
+            String name = getGeneratedCodecName(type);
+            try {
+                return (MessageCodec<?>) Class.forName(name, true, type.getClassLoader()).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                LOGGER.log(Level.WARNING, "Generated codec " + name + " not found for " + type.getName()
+                        + ", is the monkey-netty-processor on the annotation processor path? Falling back to java serialization", ex);
+                return null;
+            }
+        }
+    };
+
+    private final Map<Class<?>, MessageCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * Register a codec for a message class.
+     * Registering a codec for a class that already has a codec will replace the existing codec.
+     *
+     * @param type  The message class
+     * @param codec The codec used to transport the message class
+     * @param <T>   The message type
+     */
+    public <T extends NetworkMessage> void register(Class<T> type, MessageCodec<? super T> codec) {
+        if (type == null || codec == null) {
+            throw new NullPointerException("Message type and codec must not be null");
+        }
+        codecs.put(type, codec);
+    }
+
+    /**
+     * Unregister the codec for a message class.
+     * The message class will be transported using its generated codec if it has one,
+     * otherwise using java serialization.
+     *
+     * @param type The message class
+     */
+    public void unregister(Class<? extends NetworkMessage> type) {
+        codecs.remove(type);
+    }
+
+    /**
+     * @param type The message class
+     * @return The codec registered or generated for the message class, or null if the class should use java serialization
+     */
+    @SuppressWarnings("unchecked")
+    public MessageCodec<Object> getCodec(Class<?> type) {
+        MessageCodec<?> codec = codecs.get(type);
+        if (codec == null) {
+            codec = GENERATED_CODECS.get(type);
+        }
+        return (MessageCodec<Object>) codec;
+    }
+
+    /**
+     * @param type A class annotated with <code>NetworkSerializable</code>
+     * @return The fully qualified name of the codec generated for the class
+     */
+    public static String getGeneratedCodecName(Class<?> type) {
+        String name = type.getName();
+        int split = name.lastIndexOf('.') + 1;
+        return name.substring(0, split) + name.substring(split).replace('$', '_') + NetworkSerializable.CODEC_SUFFIX;
+    }
+}
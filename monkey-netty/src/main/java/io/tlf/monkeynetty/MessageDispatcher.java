@@ -0,0 +1,223 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.tlf.monkeynetty.msg.NetworkMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MessageDispatcher delivers received messages to the message listeners registered for their class.
+ * The listeners for each message class are resolved once and cached, so the cost of dispatching a message
+ * does not depend on how many listeners are registered.
+ * Registering or unregistering a listener replaces the dispatch table, this should be done infrequently.
+ * <p>
+ * A listener is called once for each class in its <code>getSupportedMessages()</code> that the message is an
+ * instance of. The supported messages of a listener are read when the listener is registered.
+ * Each listener is called as determined by the <code>DispatchPolicy</code> it was registered with.
+ */
+public class MessageDispatcher {
+
+    private final static Logger LOGGER = Logger.getLogger(MessageDispatcher.class.getName());
+    private static final Registration[] NO_LISTENERS = new Registration[0];
+
+    private final ListenerExecutors executors = new ListenerExecutors();
+    private volatile Table table = new Table(NO_LISTENERS);
+
+    /**
+     * Register a message listener, called on the thread delivering the message.
+     * Registering a listener that is already registered has no effect.
+     *
+     * @param listener The message listener to register
+     */
+    public void register(MessageListener listener) {
+        register(listener, DispatchPolicy.INLINE);
+    }
+
+    /**
+     * Register a message listener.
+     * Registering a listener that is already registered will replace its dispatch policy.
+     *
+     * @param listener The message listener to register
+     * @param policy   Where the listener is called
+     */
+    public synchronized void register(MessageListener listener, DispatchPolicy policy) {
+        if (listener == null || policy == null) {
+            throw new NullPointerException("Message listener and dispatch policy must not be null");
+        }
+        Registration[] registrations = table.registrations;
+        int index = indexOf(registrations, listener);
+        Registration[] updated;
+        if (index >= 0) {
+            if (registrations[index].policy == policy) {
+                return;
+            }
+            updated = registrations.clone();
+        } else {
+            index = registrations.length;
+            updated = Arrays.copyOf(registrations, registrations.length + 1);
+        }
+        updated[index] = new Registration(listener, policy);
+        table = new Table(updated);
+    }
+
+    /**
+     * Unregister a message listener.
+     * Messages already handed to another thread will still be delivered to the listener.
+     *
+     * @param listener The message listener to unregister
+     */
+    public synchronized void unregister(MessageListener listener) {
+        Registration[] registrations = table.registrations;
+        int index = indexOf(registrations, listener);
+        if (index < 0) {
+            return;
+        }
+        Registration[] updated = new Registration[registrations.length - 1];
+        System.arraycopy(registrations, 0, updated, 0, index);
+        System.arraycopy(registrations, index + 1, updated, index, updated.length - index);
+        table = new Table(updated);
+    }
+
+    /**
+     * @return The number of registered message listeners
+     */
+    public int size() {
+        return table.registrations.length;
+    }
+
+    /**
+     * Deliver a message to the listeners registered for its class.
+     * An exception thrown by a listener is logged and does not prevent the remaining listeners from being called.
+     *
+     * @param message The message received
+     * @param server  The server that received the message, or null on the client side
+     * @param client  The client that received the message
+     */
+    public void dispatch(NetworkMessage message, NetworkServer server, NetworkClient client) {
+        for (Registration registration : table.dispatch.get(message.getClass())) {
+            switch (registration.policy) {
+                case VIRTUAL_THREAD:
+                    executors.executeUnordered(() -> call(registration.listener, message, server, client));
+                    break;
+                case ORDERED:
+                    executors.executeOrdered(client, () -> call(registration.listener, message, server, client));
+                    break;
+                default:
+                    call(registration.listener, message, server, client);
+            }
+        }
+    }
+
+    /**
+     * Stop the threads calling listeners that are not registered with <code>DispatchPolicy.INLINE</code>.
+     * Messages not yet handed to those listeners are discarded.
+     * The threads are started again if another message is dispatched.
+     */
+    public void shutdown() {
+        executors.shutdown();
+    }
+
+    /**
+     * Internal use only
+     * Call a listener, logging any exception thrown.
+     *
+     * @param listener The listener to call
+     * @param message  The message received
+     * @param server   The server that received the message, or null on the client side
+     * @param client   The client that received the message
+     */
+    private static void call(MessageListener listener, NetworkMessage message, NetworkServer server, NetworkClient client) {
+        try {
+            listener.onMessage(message, server, client);
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Message handler failed to handle message " + message.getName(), ex);
+        }
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param registrations The registrations to search
+     * @param listener      The listener to find
+     * @return The index of the listener, or -1 if not found
+     */
+    private static int indexOf(Registration[] registrations, MessageListener listener) {
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i].listener.equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Internal use only
+     * A registered listener, its supported messages and dispatch policy.
+     */
+    private static class Registration {
+        private final MessageListener listener;
+        private final DispatchPolicy policy;
+        private final Class<?>[] supported;
+
+        private Registration(MessageListener listener, DispatchPolicy policy) {
+            this.listener = listener;
+            this.policy = policy;
+            Class<?>[] types = listener.getSupportedMessages();
+            this.supported = types == null ? new Class<?>[0] : types.clone();
+        }
+    }
+
+    /**
+     * Internal use only
+     * An immutable snapshot of the registered listeners, with the listeners for each message class
+     * computed on first use.
+     */
+    private static class Table {
+        private final Registration[] registrations;
+        private final ClassValue<Registration[]> dispatch = new ClassValue<Registration[]>() {
+            @Override
+            protected Registration[] computeValue(Class<?> type) {
+                List<Registration> matched = new ArrayList<>();
+                for (Registration registration : registrations) {
+                    for (Class<?> a : registration.supported) {
+                        if (a.isAssignableFrom(type)) {
+                            matched.add(registration);
+                        }
+                    }
+                }
+                return matched.isEmpty() ? NO_LISTENERS : matched.toArray(NO_LISTENERS);
+            }
+        };
+
+        private Table(Registration[] registrations) {
+            this.registrations = registrations;
+        }
+    }
+}
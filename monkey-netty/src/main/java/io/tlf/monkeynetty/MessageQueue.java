@@ -0,0 +1,359 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.util.internal.PlatformDependent;
+import io.tlf.monkeynetty.msg.NetworkMessage;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * MessageQueue holds received messages until they are drained on the jME update thread.
+ * It is used by the server and client when the <code>DispatchMode.UPDATE_THREAD</code> dispatch mode is set.
+ * <p>
+ * Reliable and unreliable messages are queued separately, each up to the capacity of the queue, and drained
+ * alternately so that a full queue of one does not delay the other. When a queue is full the overflow policy
+ * for it is applied. By default unreliable UDP messages drop the oldest queued unreliable message, and reliable
+ * messages disconnect the client they were received from, so a slow update thread never stalls the Netty.IO threads.
+ * <p>
+ * The queues are lock free multi producer, single consumer queues. Messages are offered by any Netty.IO thread,
+ * and only the update thread removes them. Oldest messages dropped on overflow are therefore skipped by the
+ * update thread when it next drains the queue, rather than removed by the Netty.IO thread.
+ * <p>
+ * The number of messages and the time spent draining each frame can be limited, any remaining messages
+ * are left for the next frame.
+ */
+public class MessageQueue {
+
+    /**
+     * The default number of reliable and of unreliable messages that may be queued
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final Lane reliableQueue;
+    private final Lane unreliableQueue;
+    private volatile OverflowPolicy reliablePolicy = OverflowPolicy.DISCONNECT;
+    private volatile OverflowPolicy unreliablePolicy = OverflowPolicy.DROP_OLDEST;
+    private volatile int maxMessagesPerFrame = 0;
+    private volatile long maxNanosPerFrame = 0;
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final Entry DROPPED = new Entry(null, null);
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicInteger peakDepth = new AtomicInteger();
+    private volatile int lastDrained = 0;
+
+    /**
+     * Creates a new queue holding up to <code>DEFAULT_CAPACITY</code> reliable and unreliable messages.
+     */
+    public MessageQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new queue.
+     *
+     * @param capacity The number of reliable and of unreliable messages that may be queued
+     */
+    public MessageQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.reliableQueue = new Lane();
+        this.unreliableQueue = new Lane();
+    }
+
+    /**
+     * Internal use only
+     * Queue a received message, applying the overflow policy for the message protocol if the queue is full.
+     *
+     * @param client  The client the message was received from
+     * @param message The message received
+     * @return false if the message was rejected and the client should be disconnected
+     */
+    public boolean offer(NetworkClient client, NetworkMessage message) {
+        boolean reliable = message.getProtocol().isReliable();
+        Lane queue = reliable ? reliableQueue : unreliableQueue;
+        int depth = queue.size.incrementAndGet() - queue.owed.get();
+        if (depth > capacity) {
+            OverflowPolicy policy = reliable ? reliablePolicy : unreliablePolicy;
+            //The queued messages are bounded to twice the capacity if the update thread stops draining
+            if (policy == OverflowPolicy.DROP_OLDEST && queue.size.get() > capacity * 2) {
+                policy = OverflowPolicy.DROP_NEWEST;
+            }
+            switch (policy) {
+                case DROP_OLDEST:
+                    queue.owed.incrementAndGet();
+                    break;
+                case DROP_NEWEST:
+                    queue.size.decrementAndGet();
+                    dropped.increment();
+                    return true;
+                case BLOCK:
+                    while (queue.size.get() - queue.owed.get() > capacity) {
+                        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                        if (Thread.interrupted()) {
+                            Thread.currentThread().interrupt();
+                            queue.size.decrementAndGet();
+                            rejected.increment();
+                            return false;
+                        }
+                    }
+                    break;
+                default:
+                    queue.size.decrementAndGet();
+                    rejected.increment();
+                    return false;
+            }
+        }
+        queue.queue.offer(new Entry(client, message));
+        peakDepth.accumulateAndGet(Math.min(depth, capacity), Math::max);
+        return true;
+    }
+
+    /**
+     * Internal use only
+     * Deliver queued messages to the receiver, until the queue is empty or the frame budget is used.
+     * This should only be called from the jME update thread.
+     *
+     * @param receiver Receives each queued message with the client it was received from
+     * @return The number of messages delivered
+     */
+    public int drain(BiConsumer<NetworkClient, NetworkMessage> receiver) {
+        int maxMessages = maxMessagesPerFrame > 0 ? maxMessagesPerFrame : Integer.MAX_VALUE;
+        long maxNanos = maxNanosPerFrame;
+        long start = maxNanos > 0 ? System.nanoTime() : 0;
+        int drained = 0;
+        int empty = 0;
+        boolean fromReliable = true;
+        while (drained < maxMessages && empty < 2) {
+            Entry entry = (fromReliable ? reliableQueue : unreliableQueue).poll();
+            fromReliable = !fromReliable;
+            if (entry == null) {
+                empty++;
+                continue;
+            }
+            empty = 0;
+            if (entry == DROPPED) {
+                continue;
+            }
+            receiver.accept(entry.client, entry.message);
+            drained++;
+            if (maxNanos > 0 && System.nanoTime() - start >= maxNanos) {
+                break;
+            }
+        }
+        lastDrained = drained;
+        return drained;
+    }
+
+    /**
+     * Remove all queued messages without delivering them.
+     */
+    public void clear() {
+        reliableQueue.clear();
+        unreliableQueue.clear();
+    }
+
+    /**
+     * Set the overflow policy used when the queue for a protocol is full.
+     * All reliable protocols share a queue, as do all unreliable protocols.
+     * Using <code>OverflowPolicy.DROP_OLDEST</code> or <code>OverflowPolicy.DROP_NEWEST</code> for a reliable protocol
+     * will lose messages that were reliably received.
+     *
+     * @param protocol The protocol of the queued messages
+     * @param policy   The overflow policy
+     */
+    public void setOverflowPolicy(NetworkProtocol protocol, OverflowPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("Overflow policy must not be null");
+        }
+        if (protocol.isReliable()) {
+            reliablePolicy = policy;
+        } else {
+            unreliablePolicy = policy;
+        }
+    }
+
+    /**
+     * @param protocol The protocol of the queued messages
+     * @return The overflow policy used when the queue for the protocol is full
+     */
+    public OverflowPolicy getOverflowPolicy(NetworkProtocol protocol) {
+        return protocol.isReliable() ? reliablePolicy : unreliablePolicy;
+    }
+
+    /**
+     * Set the maximum number of messages delivered each frame.
+     *
+     * @param maxMessagesPerFrame The maximum number of messages, or 0 for no limit
+     */
+    public void setMaxMessagesPerFrame(int maxMessagesPerFrame) {
+        this.maxMessagesPerFrame = Math.max(0, maxMessagesPerFrame);
+    }
+
+    /**
+     * @return The maximum number of messages delivered each frame, or 0 for no limit
+     */
+    public int getMaxMessagesPerFrame() {
+        return maxMessagesPerFrame;
+    }
+
+    /**
+     * Set the maximum time spent delivering messages each frame.
+     * The time is checked after each message, so a slow listener may exceed it.
+     *
+     * @param millis The maximum time in milliseconds, or 0 for no limit
+     */
+    public void setMaxTimePerFrame(float millis) {
+        this.maxNanosPerFrame = Math.max(0, (long) (millis * 1_000_000));
+    }
+
+    /**
+     * @return The maximum time in milliseconds spent delivering messages each frame, or 0 for no limit
+     */
+    public float getMaxTimePerFrame() {
+        return maxNanosPerFrame / 1_000_000f;
+    }
+
+    /**
+     * @return The number of reliable and of unreliable messages that may be queued
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of messages currently queued
+     */
+    public int getDepth() {
+        return reliableQueue.depth() + unreliableQueue.depth();
+    }
+
+    /**
+     * @param protocol The protocol of the queued messages
+     * @return The number of messages currently queued with the protocol, and the protocols sharing its queue
+     */
+    public int getDepth(NetworkProtocol protocol) {
+        return protocol.isReliable() ? reliableQueue.depth() : unreliableQueue.depth();
+    }
+
+    /**
+     * @return The largest number of reliable or unreliable messages queued since the last reset
+     */
+    public int getPeakDepth() {
+        return peakDepth.get();
+    }
+
+    /**
+     * Reset the peak depth to the current depth.
+     */
+    public void resetPeakDepth() {
+        peakDepth.set(Math.max(reliableQueue.depth(), unreliableQueue.depth()));
+    }
+
+    /**
+     * @return The number of messages dropped by <code>OverflowPolicy.DROP_OLDEST</code> or <code>OverflowPolicy.DROP_NEWEST</code>
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return The number of messages rejected by <code>OverflowPolicy.DISCONNECT</code>, or while blocked
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return The number of messages delivered during the last frame
+     */
+    public int getLastDrainedCount() {
+        return lastDrained;
+    }
+
+    /**
+     * Internal use only
+     * The queue for reliable or unreliable messages.
+     * <code>size</code> counts the queued messages, and <code>owed</code> the oldest of them that are dropped
+     * instead of delivered when they are polled.
+     */
+    private class Lane {
+        private final Queue<Entry> queue = PlatformDependent.newMpscQueue();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicInteger owed = new AtomicInteger();
+
+        /**
+         * @return The next queued message, <code>DROPPED</code> if it was dropped, or null if the queue is empty
+         */
+        private Entry poll() {
+            Entry entry = queue.poll();
+            if (entry == null) {
+                return null;
+            }
+            size.decrementAndGet();
+            if (owed.getAndUpdate(o -> o > 0 ? o - 1 : 0) > 0) {
+                dropped.increment();
+                return DROPPED;
+            }
+            return entry;
+        }
+
+        private int depth() {
+            return Math.max(0, size.get() - owed.get());
+        }
+
+        private void clear() {
+            while (queue.poll() != null) {
+                size.decrementAndGet();
+            }
+            owed.set(0);
+        }
+    }
+
+    /**
+     * Internal use only
+     * A queued message and the client it was received from.
+     */
+    private static class Entry {
+        private final NetworkClient client;
+        private final NetworkMessage message;
+
+        private Entry(NetworkClient client, NetworkMessage message) {
+            this.client = client;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.io.Serializable;
+
+/**
+ * Helpers for reading and writing values in the binary form used by message codecs.
+ * The code generated for <code>NetworkSerializable</code> messages uses these helpers.
+ * <p>
+ * Objects are serialized with the registrar and class resolver of the encoder or decoder calling the message codec,
+ * outside of a codec call only the built-in registered classes are known.
+ */
+public final class NetworkBuffers {
+
+    private static final JavaSerializationCodec SERIALIZATION = new JavaSerializationCodec(MessageClassResolver.defaultResolver());
+    private static final FastThreadLocal<JavaSerializationCodec> CURRENT_SERIALIZATION = new FastThreadLocal<JavaSerializationCodec>() {
+        @Override
+        protected JavaSerializationCodec initialValue() {
+            return SERIALIZATION;
+        }
+    };
+
+    private NetworkBuffers() {
+    }
+
+    /**
+     * Write an unsigned variable length int, using 1 byte for values under 128 and up to 5 bytes.
+     *
+     * @param out   The buffer to write to
+     * @param value The value to write
+     */
+    public static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * @param value The value to write
+     * @return The number of bytes <code>writeVarInt</code> uses for the value
+     */
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Read an unsigned variable length int written by <code>writeVarInt</code>.
+     *
+     * @param in The buffer to read from
+     * @return The value read
+     * @throws CorruptedFrameException If the value is longer than 5 bytes
+     */
+    public static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("Malformed variable length int");
+    }
+
+    /**
+     * Write a nullable UTF-8 string prefixed with its length.
+     *
+     * @param out   The buffer to write to
+     * @param value The string to write, may be null
+     */
+    public static void writeString(ByteBuf out, String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, ByteBufUtil.utf8Bytes(value) + 1);
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    /**
+     * Read a nullable string written by <code>writeString</code>.
+     *
+     * @param in The buffer to read from
+     * @return The string read, may be null
+     */
+    public static String readString(ByteBuf in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        return in.readCharSequence(length, CharsetUtil.UTF_8).toString();
+    }
+
+    /**
+     * Write a nullable object using java serialization, prefixed with its length.
+     *
+     * @param out   The buffer to write to
+     * @param value The object to write, may be null
+     * @throws Exception If the object could not be serialized
+     */
+    public static void writeObject(ByteBuf out, Object value) throws Exception {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        if (!(value instanceof Serializable)) {
+            throw new NetworkMessageException("Non-Serializable object found: " + value.getClass().getName());
+        }
+        int startIdx = out.writerIndex();
+        out.writeInt(0);
+        CURRENT_SERIALIZATION.get().encode((Serializable) value, out);
+        out.setInt(startIdx, out.writerIndex() - startIdx - 4);
+    }
+
+    /**
+     * Read a nullable object written by <code>writeObject</code>.
+     *
+     * @param in The buffer to read from
+     * @return The object read, may be null
+     * @throws Exception If the object could not be deserialized
+     */
+    public static Object readObject(ByteBuf in) throws Exception {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        ByteBuf slice = in.readSlice(length);
+        return CURRENT_SERIALIZATION.get().decode(slice);
+    }
+
+    /**
+     * Internal use only
+     * Set the codec <code>writeObject</code> and <code>readObject</code> use on the current thread,
+     * so objects nested in a message are serialized with the registrar of the connection carrying it.
+     *
+     * @param codec The codec to use
+     * @return The codec used before, to be restored once the message codec returns
+     */
+    static JavaSerializationCodec useSerialization(JavaSerializationCodec codec) {
+        JavaSerializationCodec previous = CURRENT_SERIALIZATION.get();
+        CURRENT_SERIALIZATION.set(codec);
+        return previous;
+    }
+}
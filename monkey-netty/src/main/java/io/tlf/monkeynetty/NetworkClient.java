@@ -92,6 +92,22 @@ public interface NetworkClient {
      */
     public void registerListener(MessageListener handler);
 
+    /**
+     * Register a message listener with the client, called as determined by the dispatch policy.
+     *
+     * The default implementation only supports <code>DispatchPolicy.INLINE</code>.
+     *
+     * @param handler The message listener to register
+     * @param policy  Where the message listener is called
+     * @throws UnsupportedOperationException If the policy is not supported by the client
+     */
+    public default void registerListener(MessageListener handler, DispatchPolicy policy) {
+        if (policy != DispatchPolicy.INLINE) {
+            throw new UnsupportedOperationException("Dispatch policy " + policy + " is not supported");
+        }
+        registerListener(handler);
+    }
+
     /**
      * Unregister a message listener with the client.
      *
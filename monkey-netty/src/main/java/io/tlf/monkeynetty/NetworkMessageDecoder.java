@@ -25,27 +25,32 @@ SOFTWARE.
 package io.tlf.monkeynetty;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import io.netty.handler.codec.serialization.ClassResolver;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
 
-import java.io.ObjectInputStream;
 import java.io.StreamCorruptedException;
+import java.util.List;
 
 /**
  * @author Trevor Flynn trevorflynn@liquidcrystalstudios.com
  * <p>
  * Decodes a NetworkMessage from a binary stream for recieving to remote side.
- * Utilizes NetworkObjectInputtream
+ * Messages with a codec registered in the <code>MessageCodecRegistry</code> are read using that codec,
+ * all other messages are read using java serialization with NetworkObjectInputStream.
+ * The type id in the frame header is read before the body, so frames can be routed or dropped with
+ * <code>accept</code> without decoding them. See <code>NetworkMessageEncoder</code> for the frame layout.
  * <p>
  * Based from: io.netty.handler.codec.serialization.ObjectDecoder
  */
-public class NetworkMessageDecoder extends LengthFieldBasedFrameDecoder {
+public class NetworkMessageDecoder extends ByteToMessageDecoder {
 
-    private final ClassResolver classResolver;
-
-    private NetworkRegistrar registrar = new NetworkRegistrar();
+    private final int maxObjectSize;
+    private final MessageClassResolver classResolver;
+    private final MessageCodecRegistry codecs;
+    private final NetworkRegistrar registrar;
+    private final JavaSerializationCodec serializationCodec;
 
     /**
      * Creates a new decoder whose maximum object size is {@code 1048576}
@@ -53,9 +58,10 @@ public class NetworkMessageDecoder extends LengthFieldBasedFrameDecoder {
      * {@code 1048576} bytes, a {@link StreamCorruptedException} will be
      * raised.
      *
-     * @param classResolver the {@link ClassResolver} to use for this decoder
+     * @param classResolver the Netty.IO class resolver to use for this decoder
      */
-    public NetworkMessageDecoder(ClassResolver classResolver) {
+    @SuppressWarnings("deprecation")
+    public NetworkMessageDecoder(io.netty.handler.codec.serialization.ClassResolver classResolver) {
         this(1048576, classResolver);
     }
 
@@ -66,26 +72,164 @@ public class NetworkMessageDecoder extends LengthFieldBasedFrameDecoder {
      *                      if the length of the received object is greater
      *                      than this value, {@link StreamCorruptedException}
      *                      will be raised.
-     * @param classResolver the {@link ClassResolver} which will load the class
+     * @param classResolver the Netty.IO class resolver which will load the class
+     *                      of the serialized object
+     */
+    @SuppressWarnings("deprecation")
+    public NetworkMessageDecoder(int maxObjectSize, io.netty.handler.codec.serialization.ClassResolver classResolver) {
+        this(maxObjectSize, MessageClassResolver.of(classResolver), new MessageCodecRegistry());
+    }
+
+    /**
+     * Creates a new decoder with the specified maximum object size using the registered codecs.
+     *
+     * @param maxObjectSize the maximum byte length of the serialized object.
+     *                      if the length of the received object is greater
+     *                      than this value, {@link StreamCorruptedException}
+     *                      will be raised.
+     * @param classResolver the class resolver which will load the class
+     *                      of the serialized object
+     * @param codecs        the codecs to use for messages, messages without a codec will use java serialization
+     */
+    public NetworkMessageDecoder(int maxObjectSize, MessageClassResolver classResolver, MessageCodecRegistry codecs) {
+        this(maxObjectSize, classResolver, codecs, new NetworkRegistrar());
+    }
+
+    /**
+     * Creates a new decoder with the specified maximum object size using the registered codecs and classes.
+     *
+     * @param maxObjectSize the maximum byte length of the serialized object.
+     *                      if the length of the received object is greater
+     *                      than this value, {@link StreamCorruptedException}
+     *                      will be raised.
+     * @param classResolver the class resolver which will load the class
      *                      of the serialized object
+     * @param codecs        the codecs to use for messages, messages without a codec will use java serialization
+     * @param registrar     the registrar shared with the remote side
      */
-    public NetworkMessageDecoder(int maxObjectSize, ClassResolver classResolver) {
-        super(maxObjectSize, 0, 4, 0, 4);
+    public NetworkMessageDecoder(int maxObjectSize, MessageClassResolver classResolver, MessageCodecRegistry codecs, NetworkRegistrar registrar) {
+        this.maxObjectSize = maxObjectSize;
         this.classResolver = classResolver;
+        this.codecs = codecs;
+        this.registrar = registrar;
+        this.serializationCodec = new JavaSerializationCodec(classResolver, registrar);
     }
 
     @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        Object decoded = decode(ctx, in);
+        if (decoded != null) {
+            out.add(decoded);
+        }
+    }
+
+    /**
+     * Decodes the next frame in the buffer, if all of it has been received.
+     *
+     * @param ctx The context of the decoder
+     * @param in  The buffer to read from
+     * @return The message, or null if the frame is incomplete or carries no message
+     * @throws Exception If the frame could not be decoded
+     */
     public Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
-        ByteBuf frame = (ByteBuf) super.decode(ctx, in);
-        if (frame == null) {
+        int start = in.readerIndex();
+        int length = readLength(in);
+        if (length > maxObjectSize) {
+            in.skipBytes(in.readableBytes());
+            throw new TooLongFrameException("Frame of " + length + " bytes exceeds " + maxObjectSize);
+        }
+        if (length < 0 || in.readableBytes() < length) {
+            in.readerIndex(start);
             return null;
         }
 
-        ObjectInputStream ois = new NetworkObjectInputStream(new ByteBufInputStream(frame, true), classResolver, registrar);
+        ByteBuf frame = in.readRetainedSlice(length);
+        try {
+            int type = NetworkBuffers.readVarInt(frame);
+            int flags = frame.readUnsignedByte();
+            if (flags != 0) {
+                throw new StreamCorruptedException("Unsupported frame flags: " + flags);
+            }
+            switch (type) {
+                case NetworkMessageEncoder.TYPE_CONTROL:
+                    return ControlFrames.decode(frame);
+                case NetworkMessageEncoder.TYPE_SERIALIZED:
+                    return serializationCodec.decode(frame);
+                case NetworkMessageEncoder.TYPE_NAMED:
+                    return decodeCodec(classResolver.resolve(NetworkBuffers.readString(frame)), frame);
+                default:
+                    int id = type - NetworkMessageEncoder.TYPE_REGISTERED;
+                    Class<?> clazz = registrar.getType(id);
+                    if (clazz == null) {
+                        throw new NetworkMessageException("Unregistered type received for decoding: " + id);
+                    }
+                    if (!accept(clazz)) {
+                        return null;
+                    }
+                    return decodeCodec(clazz, frame);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Decides from the frame header alone if a message of a registered class is decoded.
+     * Frames that are not accepted are dropped without reading their body.
+     * By default every frame is accepted.
+     *
+     * @param type The registered class of the message
+     * @return If the frame should be decoded
+     */
+    protected boolean accept(Class<?> type) {
+        return true;
+    }
+
+    /**
+     * Internal use only
+     * Reads the body of a codec message.
+     *
+     * @param clazz The class of the message
+     * @param frame The buffer to read from
+     * @return The message
+     * @throws Exception If the message could not be decoded
+     */
+    private Object decodeCodec(Class<?> clazz, ByteBuf frame) throws Exception {
+        MessageCodec<Object> codec = codecs.getCodec(clazz);
+        if (codec == null) {
+            throw new NetworkMessageException("No codec registered for message " + clazz.getName());
+        }
+        JavaSerializationCodec previous = NetworkBuffers.useSerialization(serializationCodec);
         try {
-            return ois.readObject();
+            return codec.decode(frame);
         } finally {
-            ois.close();
+            NetworkBuffers.useSerialization(previous);
+        }
+    }
+
+    /**
+     * Internal use only
+     * Reads the varint length of a frame, if all of the varint has been received.
+     *
+     * @param in The buffer to read from
+     * @return The length, or -1 if more bytes are needed
+     * @throws CorruptedFrameException If the length is malformed
+     */
+    private static int readLength(ByteBuf in) throws CorruptedFrameException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.isReadable()) {
+                return -1;
+            }
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new CorruptedFrameException("Negative frame length: " + value);
+                }
+                return value;
+            }
         }
+        throw new CorruptedFrameException("Malformed frame length");
     }
 }
@@ -25,50 +25,176 @@ SOFTWARE.
 package io.tlf.monkeynetty;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
-import java.io.NotSerializableException;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
  * @author Trevor Flynn trevorflynn@liquidcrystalstudios.com
  * <p>
  * Encodes a NetworkMessage into a binary stream for sending to remote side.
- * Utilizes NetworkObjectOutputStream
+ * Messages with a codec registered in the <code>MessageCodecRegistry</code> are written using that codec,
+ * the messages used to run the connection are written as control frames, see <code>ControlFrames</code>,
+ * all other messages are written using java serialization with NetworkObjectOutputStream.
+ * <p>
+ * Each frame starts with a header of the varint length of the rest of the frame, the varint type of the message
+ * and a flags byte, so the type can be read without decoding the body. The flags are reserved for compressed,
+ * fragmented and sequenced frames, and are always 0 for now. Codec messages of registered classes
+ * are identified by the type alone. The length of frames under 2 MiB is always written as a 3 byte varint,
+ * padded with continuation bits, so a small message has a header of 5 bytes.
  * <p>
  * Based from: io.netty.handler.codec.serialization.ObjectEncoder
  */
 public class NetworkMessageEncoder extends MessageToByteEncoder<Serializable> {
-    private static final byte[] LENGTH_PLACEHOLDER = new byte[4];
+    private static final int LENGTH_RESERVED = 3;
+    private static final int LENGTH_RESERVED_MAX = (1 << 7 * LENGTH_RESERVED) - 1;
+
+    /**
+     * A control frame, see <code>ControlFrames</code>
+     */
+    static final int TYPE_CONTROL = 0;
+
+    /**
+     * A message written with java serialization
+     */
+    static final int TYPE_SERIALIZED = 1;
+
+    /**
+     * A codec message of a class that is not registered, with the class name before the body
+     */
+    static final int TYPE_NAMED = 2;
+
+    /**
+     * The type of the codec message of the first registered class, the type of each other registered class
+     * is this plus its UID
+     */
+    static final int TYPE_REGISTERED = 3;
+
+    private final MessageCodecRegistry codecs;
+    private final NetworkRegistrar registrar;
+    private final JavaSerializationCodec serializationCodec;
 
-    private NetworkRegistrar registrar = new NetworkRegistrar();
+    /**
+     * Creates a new encoder that transports all messages using java serialization.
+     */
+    public NetworkMessageEncoder() {
+        this(new MessageCodecRegistry());
+    }
+
+    /**
+     * Creates a new encoder using the registered codecs.
+     *
+     * @param codecs The codecs to use for messages, messages without a codec will use java serialization
+     */
+    public NetworkMessageEncoder(MessageCodecRegistry codecs) {
+        this(codecs, new NetworkRegistrar());
+    }
+
+    /**
+     * Creates a new encoder using the registered codecs and classes.
+     *
+     * @param codecs    The codecs to use for messages, messages without a codec will use java serialization
+     * @param registrar The registrar shared with the remote side
+     */
+    public NetworkMessageEncoder(MessageCodecRegistry codecs, NetworkRegistrar registrar) {
+        this.codecs = codecs;
+        this.registrar = registrar;
+        this.serializationCodec = new JavaSerializationCodec(MessageClassResolver.defaultResolver(), registrar);
+    }
 
     @Override
     protected void encode(ChannelHandlerContext ctx, Serializable msg, ByteBuf out) throws Exception {
-        int startIdx = out.writerIndex();
+        encodeFrame(msg, out);
+    }
 
-        ByteBufOutputStream bout = new ByteBufOutputStream(out);
-        ObjectOutputStream oout = null;
+    /**
+     * Encodes a message into a new buffer allocated from the given allocator.
+     * The returned frame can be written to any number of channels using this encoder with
+     * <code>retainedDuplicate()</code>, as buffers are passed through the encoder untouched.
+     * The caller is responsible for releasing the returned buffer.
+     *
+     * @param alloc The allocator to allocate the frame from
+     * @param msg   The message to encode
+     * @return The encoded frame
+     * @throws Exception If the message could not be encoded
+     */
+    public ByteBuf encodeFrame(ByteBufAllocator alloc, Serializable msg) throws Exception {
+        ByteBuf out = alloc.ioBuffer();
         try {
-            bout.write(LENGTH_PLACEHOLDER);
-            oout = new NetworkObjectOutputStream(bout, registrar);
-            oout.writeObject(msg);
-            oout.flush();
-        } catch (NotSerializableException nsex) {
-            throw new NetworkMessageException("Non-Serializable object " + nsex.getMessage() + " found in message " + msg.getClass().getName(), nsex);
-        } finally {
-            if (oout != null) {
-                oout.close();
+            encodeFrame(msg, out);
+            return out;
+        } catch (Exception ex) {
+            out.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Internal use only
+     * Writes a frame containing the message, a header of the varint length of the rest of the frame,
+     * the varint type of the message and the flags, followed by the body.
+     * The length is reserved as 3 bytes, enough for any frame under 2 MiB, and written in place once known,
+     * so the body is never moved. Only larger frames are copied to make room for a longer length.
+     *
+     * @param msg The message to encode
+     * @param out The buffer to write to
+     * @throws Exception If the message could not be encoded
+     */
+    private void encodeFrame(Serializable msg, ByteBuf out) throws Exception {
+        int startIdx = out.writerIndex();
+        out.writeZero(LENGTH_RESERVED);
+        int headerIdx = out.writerIndex();
+
+        MessageCodec<Object> codec;
+        if (ControlFrames.isControl(msg)) {
+            writeHeader(out, TYPE_CONTROL);
+            ControlFrames.encode(msg, out);
+        } else if ((codec = codecs.getCodec(msg.getClass())) == null) {
+            writeHeader(out, TYPE_SERIALIZED);
+            serializationCodec.encode(msg, out);
+        } else {
+            int id = registrar.getId(msg.getClass());
+            if (id >= 0) {
+                writeHeader(out, TYPE_REGISTERED + id);
             } else {
-                bout.close();
+                writeHeader(out, TYPE_NAMED);
+                NetworkBuffers.writeString(out, msg.getClass().getName());
+            }
+            JavaSerializationCodec previous = NetworkBuffers.useSerialization(serializationCodec);
+            try {
+                codec.encode(msg, out);
+            } finally {
+                NetworkBuffers.useSerialization(previous);
             }
         }
 
-        int endIdx = out.writerIndex();
+        int length = out.writerIndex() - headerIdx;
+        if (length <= LENGTH_RESERVED_MAX) {
+            //A varint padded to 3 bytes, with the continuation bit set on the first two
+            out.setMedium(startIdx, 0x808000 | (length & 0x7F) << 16 | (length >>> 7 & 0x7F) << 8 | length >>> 14);
+        } else {
+            ByteBuf body = out.copy(headerIdx, length);
+            try {
+                out.writerIndex(startIdx);
+                NetworkBuffers.writeVarInt(out, length);
+                out.writeBytes(body);
+            } finally {
+                body.release();
+            }
+        }
+    }
 
-        out.setInt(startIdx, endIdx - startIdx - 4);
+    /**
+     * Internal use only
+     * Writes the type and flags of a frame.
+     *
+     * @param out  The buffer to write to
+     * @param type The type of the message
+     */
+    private static void writeHeader(ByteBuf out, int type) {
+        NetworkBuffers.writeVarInt(out, type);
+        out.writeByte(0);
     }
 }
@@ -24,24 +24,22 @@ SOFTWARE.
 
 package io.tlf.monkeynetty;
 
-import io.netty.handler.codec.serialization.ClassResolver;
-
 import java.io.*;
 
 /**
  * @author Trevor Flynn trevorflynn@liquidcrystalstudios.com
  * <p>
  * Converts a binary stream into an Object.
- * If a class name and UID are sent with the object, this will remember the class to UID relationship.
- * All future instances of the UID will be related to the correct class for deserialization.
+ * Class UIDs are resolved using the NetworkRegistrar shared with the remote side during the handshake,
+ * classes sent by name are resolved using the class resolver.
  * Based from: io.netty.handler.codec.serialization.CompactObjectInputStream
  */
 public class NetworkObjectInputStream extends ObjectInputStream {
 
-    private final ClassResolver classResolver;
+    private final MessageClassResolver classResolver;
     private final NetworkRegistrar registrar;
 
-    NetworkObjectInputStream(InputStream in, ClassResolver classResolver, NetworkRegistrar registrar) throws IOException {
+    NetworkObjectInputStream(InputStream in, MessageClassResolver classResolver, NetworkRegistrar registrar) throws IOException {
         super(in);
         this.classResolver = classResolver;
         this.registrar = registrar;
@@ -66,27 +64,40 @@ public class NetworkObjectInputStream extends ObjectInputStream {
             case NetworkObjectOutputStream.TYPE_FAT_DESCRIPTOR:
                 return super.readClassDescriptor();
             case NetworkObjectOutputStream.TYPE_THIN_DESCRIPTOR:
-                int id = readInt();
-                String className = registrar.getUidRegistry().get(id);
-                if (className == null) {
+                int id = readVarInt();
+                Class<?> clazz = registrar.getType(id);
+                if (clazz == null) {
                     throw new NetworkMessageException("Unregistered type received for decoding: " + id);
                 }
-                Class<?> clazz = classResolver.resolve(className);
                 return ObjectStreamClass.lookupAny(clazz);
-            case NetworkObjectOutputStream.TYPE_NEW_DESCRIPTOR:
-                String newName = readUTF();
-                int newId = readInt();
-                registrar.register(newName, newId);
-                Class<?> newClazz = classResolver.resolve(newName);
-                return ObjectStreamClass.lookupAny(newClazz);
+            case NetworkObjectOutputStream.TYPE_NAMED_DESCRIPTOR:
+                String className = readUTF();
+                Class<?> namedClazz = classResolver.resolve(className);
+                return ObjectStreamClass.lookupAny(namedClazz);
             default:
                 throw new StreamCorruptedException("Unexpected class descriptor type: " + type);
         }
     }
 
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed class UID");
+    }
+
     @Override
     protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
-        Class<?> clazz;
+        //Descriptors of registered and named classes are already bound to the local class
+        Class<?> clazz = desc.forClass();
+        if (clazz != null) {
+            return clazz;
+        }
         try {
             clazz = classResolver.resolve(desc.getName());
         } catch (ClassNotFoundException ignored) {
@@ -30,17 +30,17 @@ import java.io.*;
  * @author Trevor Flynn trevorflynn@liquidcrystalstudios.com
  * <p>
  * Converts a Object into a binary stream.
- * The first instance of a class sent will send a UID and class name to remote side.
- * All future instances of the class sent will only send UID.
+ * Classes registered with the NetworkRegistrar are sent as their UID,
+ * all other classes are sent by class name.
  * Based from: io.netty.handler.codec.serialization.CompactObjectOutputStream
  */
 public class NetworkObjectOutputStream extends ObjectOutputStream {
 
     static final int TYPE_FAT_DESCRIPTOR = 0;
     static final int TYPE_THIN_DESCRIPTOR = 1;
-    static final int TYPE_NEW_DESCRIPTOR = 2;
+    static final int TYPE_NAMED_DESCRIPTOR = 2;
 
-    private NetworkRegistrar registrar;
+    private final NetworkRegistrar registrar;
 
     NetworkObjectOutputStream(OutputStream out, NetworkRegistrar registrar) throws IOException {
         super(out);
@@ -63,16 +63,22 @@ public class NetworkObjectOutputStream extends ObjectOutputStream {
             write(TYPE_FAT_DESCRIPTOR);
             super.writeClassDescriptor(desc);
         } else {
-            Integer id = registrar.getClassRegistry().get(clazz.getName());
-            if (id != null) {
+            int id = registrar.getId(clazz);
+            if (id >= 0) {
                 write(TYPE_THIN_DESCRIPTOR);
-                writeInt(id);
+                writeVarInt(id);
             } else {
-                registrar.register(clazz.getName());
-                write(TYPE_NEW_DESCRIPTOR);
+                write(TYPE_NAMED_DESCRIPTOR);
                 writeUTF(clazz.getName());
-                writeInt(registrar.getClassRegistry().get(clazz.getName()));
             }
         }
     }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write(value);
+    }
 }
@@ -28,5 +28,39 @@ package io.tlf.monkeynetty;
  * @author Trevor Flynn trevorflynn@liquidcrystalstudios.com
  */
 public enum NetworkProtocol {
-    UDP, TCP
+    /**
+     * Unreliable, unordered delivery over UDP
+     */
+    UDP,
+
+    /**
+     * Reliable, ordered delivery over TCP
+     */
+    TCP,
+
+    /**
+     * Reliable, ordered delivery over UDP.
+     * Messages are resent until acknowledged, and are not delayed by TCP or unreliable UDP traffic.
+     */
+    UDP_RELIABLE,
+
+    /**
+     * Unreliable delivery over UDP, discarding messages older than the newest message received
+     * on the same sequence channel. See <code>NetworkMessage.getSequenceChannel()</code>.
+     */
+    UDP_SEQUENCED;
+
+    /**
+     * @return If messages using the protocol are sent over the UDP channel
+     */
+    public boolean isUdp() {
+        return this != TCP;
+    }
+
+    /**
+     * @return If messages using the protocol are guaranteed to be delivered, in order
+     */
+    public boolean isReliable() {
+        return this == TCP || this == UDP_RELIABLE;
+    }
 }
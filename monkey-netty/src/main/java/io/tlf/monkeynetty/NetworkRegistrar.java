@@ -24,55 +24,194 @@ SOFTWARE.
 
 package io.tlf.monkeynetty;
 
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.math.Vector4f;
+import io.tlf.monkeynetty.msg.ClassRegistryMessage;
+import io.tlf.monkeynetty.msg.ConnectionEstablishedMessage;
+import io.tlf.monkeynetty.msg.PingMessage;
+import io.tlf.monkeynetty.msg.UdpConHashMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * NetworkRegistrar keeps a record of class names to UIDs.
+ * NetworkRegistrar keeps a record of classes to UIDs.
  * This is used by monkey-netty for transporting objects by using UIDs for each object.
+ * <p>
+ * The server owns the registrar, classes are registered with it before the server is enabled.
+ * The registered class names are sent to the client once during the TCP handshake, after which both
+ * sides use the same UIDs. A single registrar is shared read-only by all pipelines of a server or client,
+ * so the per-message cost of a registered class is a single variable length int.
+ * Classes that are not registered are transported by name.
+ * <p>
+ * A fixed set of built-in classes is always registered, these UIDs are the same for every server and client.
  */
 public class NetworkRegistrar {
 
-    private HashMap<String, Integer> classUID = new HashMap<>();
-    private HashMap<Integer, String> uidClass = new HashMap<>();
-    private volatile int uid = 0;
+    private final static Logger LOGGER = Logger.getLogger(NetworkRegistrar.class.getName());
+
+    /**
+     * Classes registered on every server and client.
+     * New classes must only be appended, as the position of a class is its UID.
+     */
+    private static final Class<?>[] BUILT_IN = {
+            PingMessage.class,
+            ConnectionEstablishedMessage.class,
+            UdpConHashMessage.class,
+            ClassRegistryMessage.class,
+            Number.class,
+            Boolean.class,
+            Byte.class,
+            Character.class,
+            Short.class,
+            Integer.class,
+            Long.class,
+            Float.class,
+            Double.class,
+            ArrayList.class,
+            LinkedList.class,
+            HashMap.class,
+            LinkedHashMap.class,
+            HashSet.class,
+            LinkedHashSet.class,
+            Vector2f.class,
+            Vector3f.class,
+            Vector4f.class,
+            Quaternion.class,
+            ColorRGBA.class,
+            Matrix3f.class,
+            Matrix4f.class,
+            Transform.class
+    };
+
+    private final List<Class<?>> registered = new ArrayList<>();
+    private volatile Registry registry = new Registry(new Class<?>[0]);
+    private volatile boolean locked = false;
 
     /**
      * Register a class with the registrar.
      * If attempting to register the same class multiple times, the additional attempts
      * to register will be silently ignored.
      *
-     * @param className The fully qualified class name to register
+     * @param type The class to register
+     * @throws IllegalStateException If the registrar has been locked
      */
-    public void register(String className) {
-        if (!classUID.containsKey(className)) {
-            int newId = uid++;
-            register(className, newId);
+    public synchronized void register(Class<?> type) {
+        if (locked) {
+            throw new IllegalStateException("Classes must be registered before the server is enabled");
+        }
+        if (getId(type) < 0) {
+            registered.add(type);
+            registry = new Registry(registered.toArray(new Class<?>[0]));
         }
     }
 
     /**
      * Internal Use Only
-     * Force a classname and ID pair
+     * Prevent further registration, called when the server is enabled.
+     */
+    public void lock() {
+        locked = true;
+    }
+
+    /**
+     * @return If classes can no longer be registered
+     */
+    public boolean isLocked() {
+        return locked;
+    }
+
+    /**
+     * Internal Use Only
+     * Replace the registered classes with the classes registered on the server.
+     * Classes that are not available locally are skipped, messages of those classes can not be decoded.
      *
-     * @param className The fully qualified class name to register
-     * @param id        The UID of the class
+     * @param classNames    The names of the classes registered on the server, in UID order
+     * @param classResolver The class resolver used to load the classes
      */
-    public void register(String className, int id) {
-        classUID.put(className, id);
-        uidClass.put(id, className);
+    public synchronized void load(String[] classNames, MessageClassResolver classResolver) {
+        Class<?>[] types = new Class<?>[classNames.length];
+        for (int i = 0; i < classNames.length; i++) {
+            try {
+                types[i] = classResolver.resolve(classNames[i]);
+            } catch (ClassNotFoundException ex) {
+                LOGGER.log(Level.WARNING, "Server registered class {0} not found", classNames[i]);
+            }
+        }
+        registered.clear();
+        registered.addAll(Arrays.asList(types));
+        registry = new Registry(types);
+    }
+
+    /**
+     * @return The names of the registered classes in UID order, not including built-in classes
+     */
+    public synchronized String[] getRegisteredNames() {
+        String[] names = new String[registered.size()];
+        for (int i = 0; i < names.length; i++) {
+            Class<?> type = registered.get(i);
+            names[i] = type == null ? "" : type.getName();
+        }
+        return names;
     }
 
     /**
-     * @return The registry relating UID to class name
+     * @param type The class to lookup
+     * @return The UID of the class, or -1 if the class is not registered
      */
-    public HashMap<Integer, String> getUidRegistry() {
-        return uidClass;
+    public int getId(Class<?> type) {
+        return registry.ids.get(type);
     }
 
     /**
-     * @return The registry relating class name to UID
+     * @param id The UID to lookup
+     * @return The class registered with the UID, or null if no class is registered with the UID
      */
-    public HashMap<String, Integer> getClassRegistry() {
-        return classUID;
+    public Class<?> getType(int id) {
+        Class<?>[] types = registry.types;
+        return id >= 0 && id < types.length ? types[id] : null;
+    }
+
+    /**
+     * An immutable view of the registered classes.
+     * A new view is created when classes are registered, so lookups never need to lock.
+     */
+    private static class Registry {
+        private final Class<?>[] types;
+        private final ClassValue<Integer> ids;
+
+        private Registry(Class<?>[] registered) {
+            types = new Class<?>[BUILT_IN.length + registered.length];
+            System.arraycopy(BUILT_IN, 0, types, 0, BUILT_IN.length);
+            System.arraycopy(registered, 0, types, BUILT_IN.length, registered.length);
+            Map<Class<?>, Integer> byType = new HashMap<>();
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] != null) {
+                    byType.put(types[i], i);
+                }
+            }
+            ids = new ClassValue<Integer>() {
+                @Override
+                protected Integer computeValue(Class<?> type) {
+                    Integer id = byType.get(type);
+                    return id == null ? -1 : id;
+                }
+            };
+        }
     }
 }
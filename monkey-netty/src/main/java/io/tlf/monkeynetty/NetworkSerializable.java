@@ -0,0 +1,57 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a message for compile time generation of a binary <code>MessageCodec</code>.
+ * When the monkey-netty annotation processor is on the annotation processor path, a codec named
+ * <code>[ClassName]_MessageCodec</code> is generated in the package of the annotated class.
+ * The generated codec is picked up automatically by the server and client, no registration is required.
+ * <p>
+ * All non-static, non-transient fields of the class and its super classes are transported.
+ * Fields must either be accessible from the package of the class and not final, or have a getter and setter.
+ * The annotated class must have a no-arg constructor accessible from its package.
+ * <p>
+ * Supported field types are primitives and their wrappers, strings, enums, arrays of supported types,
+ * and other <code>NetworkSerializable</code> classes. Any other field type will be transported using
+ * java serialization, and must be <code>Serializable</code> at runtime. A field holding a subclass of its declared
+ * <code>NetworkSerializable</code> class is also transported using java serialization, so the subclass is not lost.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface NetworkSerializable {
+
+    /**
+     * The suffix appended to the name of the annotated class to name the generated codec.
+     */
+    public static final String CODEC_SUFFIX = "_MessageCodec";
+}
@@ -26,6 +26,8 @@ package io.tlf.monkeynetty;
 
 import io.tlf.monkeynetty.msg.NetworkMessage;
 
+import java.util.Collection;
+
 /**
  * @author Trevor Flynn trevorflynn@liquidcrystalstudios.com
  * <p>
@@ -105,6 +107,18 @@ public interface NetworkServer {
      */
     public void send(NetworkMessage message, NetworkClient client);
 
+    /**
+     * Send a message to each of the provided clients.
+     *
+     * @param message The message to send
+     * @param clients The clients to send the message to
+     */
+    public default void send(NetworkMessage message, Collection<? extends NetworkClient> clients) {
+        for (NetworkClient client : clients) {
+            send(message, client);
+        }
+    }
+
     /**
      * Register a message listener with the server.
      *
@@ -112,6 +126,22 @@ public interface NetworkServer {
      */
     public void registerListener(MessageListener handler);
 
+    /**
+     * Register a message listener with the server, called as determined by the dispatch policy.
+     *
+     * The default implementation only supports <code>DispatchPolicy.INLINE</code>.
+     *
+     * @param handler The message listener to register
+     * @param policy  Where the message listener is called
+     * @throws UnsupportedOperationException If the policy is not supported by the server
+     */
+    public default void registerListener(MessageListener handler, DispatchPolicy policy) {
+        if (policy != DispatchPolicy.INLINE) {
+            throw new UnsupportedOperationException("Dispatch policy " + policy + " is not supported");
+        }
+        registerListener(handler);
+    }
+
     /**
      * Unregister a message listener with the server.
      *
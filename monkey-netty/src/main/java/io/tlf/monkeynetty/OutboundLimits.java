@@ -0,0 +1,177 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+
+/**
+ * OutboundLimits decides what happens to a message sent to a connection that is not reading fast enough.
+ * A channel stops being writable when the bytes queued for it pass the high write buffer water mark,
+ * see <code>TransportOptions.setWriteBufferWaterMark</code>, and becomes writable again once they drain
+ * below the low water mark.
+ * <p>
+ * While a channel is not writable, unreliable UDP and sequenced UDP messages are dropped, as a newer message
+ * will replace them. Reliable messages, over TCP or UDP, are queued until the channel holds more than the queue
+ * limit, at which point the connection is closed.
+ * <p>
+ * On the server, the UDP sessions of the clients received on one socket write through that socket,
+ * so UDP messages are limited by the writability and queue of the shared socket rather than of the client.
+ * When the socket falls behind, unreliable UDP messages are dropped for every client on it. Reliable UDP messages
+ * are dropped instead of closing the connection once the socket passes the queue limit or the budget is exceeded,
+ * as the queue of the socket is not owned by the client the message happens to be sent to.
+ * <p>
+ * The direct memory budget caps the pooled direct memory used across all connections. While it is exceeded,
+ * unreliable messages are dropped for every connection, and a connection that is not writable is closed
+ * when a reliable message is sent to it.
+ */
+public class OutboundLimits {
+
+    /**
+     * What to do with a message
+     */
+    public enum Action {
+        /**
+         * Write the message
+         */
+        WRITE,
+
+        /**
+         * Drop the message
+         */
+        DROP,
+
+        /**
+         * Drop the message and close the connection
+         */
+        DISCONNECT
+    }
+
+    private long queueLimit = 16 * 1024 * 1024;
+    private long directMemoryBudget = 0;
+
+    /**
+     * Sets the bytes a channel may queue for reliable messages while it is not writable,
+     * before the connection is closed. By default this is 16 MiB.
+     *
+     * @param queueLimit The queue limit in bytes
+     */
+    public void setQueueLimit(long queueLimit) {
+        if (queueLimit < 1) {
+            throw new IllegalArgumentException("Queue limit must be at least 1 byte");
+        }
+        this.queueLimit = queueLimit;
+    }
+
+    /**
+     * @return The bytes a channel may queue for reliable messages while it is not writable
+     */
+    public long getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * Sets the pooled direct memory all connections may use before messages to them are dropped.
+     * A budget of 0 disables the budget, which is the default.
+     *
+     * @param directMemoryBudget The direct memory budget in bytes
+     */
+    public void setDirectMemoryBudget(long directMemoryBudget) {
+        if (directMemoryBudget < 0) {
+            throw new IllegalArgumentException("Direct memory budget must not be negative");
+        }
+        this.directMemoryBudget = directMemoryBudget;
+    }
+
+    /**
+     * @return The pooled direct memory all connections may use, or 0 if there is no budget
+     */
+    public long getDirectMemoryBudget() {
+        return directMemoryBudget;
+    }
+
+    /**
+     * Internal use only
+     * Decide what to do with a message sent on a channel.
+     *
+     * @param channel  The channel the message is sent on
+     * @param protocol The protocol of the message
+     * @return What to do with the message
+     */
+    public Action check(Channel channel, NetworkProtocol protocol) {
+        return check(channel, protocol, false);
+    }
+
+    /**
+     * Internal use only
+     * Decide what to do with a message sent on a channel, which may be shared by many connections.
+     * A message that would close the connection is dropped instead when the channel is shared.
+     *
+     * @param channel  The channel the message is sent on
+     * @param protocol The protocol of the message
+     * @param shared   If the channel carries the messages of other connections
+     * @return What to do with the message
+     */
+    public Action check(Channel channel, NetworkProtocol protocol, boolean shared) {
+        boolean writable = channel.isWritable();
+        if (writable && directMemoryBudget == 0) {
+            return Action.WRITE;
+        }
+        boolean overBudget = directMemoryBudget > 0 && usedDirectMemory(channel.alloc()) > directMemoryBudget;
+        if (!protocol.isReliable()) {
+            return writable && !overBudget ? Action.WRITE : Action.DROP;
+        }
+        if (writable) {
+            return Action.WRITE;
+        }
+        if (overBudget || pendingBytes(channel) > queueLimit) {
+            return shared ? Action.DROP : Action.DISCONNECT;
+        }
+        return Action.WRITE;
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param channel The channel
+     * @return The bytes queued for writing on the channel
+     */
+    private static long pendingBytes(Channel channel) {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer == null ? 0 : buffer.totalPendingWriteBytes();
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param alloc The allocator of a channel
+     * @return The direct memory used by the allocator, or 0 if it does not report it
+     */
+    private static long usedDirectMemory(ByteBufAllocator alloc) {
+        return alloc instanceof ByteBufAllocatorMetricProvider ? ((ByteBufAllocatorMetricProvider) alloc).metric().usedDirectMemory() : 0;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+/**
+ * Overflow Policy is used by the <code>MessageQueue</code> and the UDP session buffers of the server
+ * to determine what happens to a received message when the queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Remove the oldest queued message to make room for the received message
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the received message, keeping the queued messages
+     */
+    DROP_NEWEST,
+
+    /**
+     * Block the Netty.IO thread until the update thread makes room for the received message.
+     * This will stop reading from all connections handled by the blocked thread, and is not recommended.
+     */
+    BLOCK,
+
+    /**
+     * Disconnect the client the message was received from
+     */
+    DISCONNECT
+}
@@ -0,0 +1,319 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultSelectStrategyFactory;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.EventExecutorChooserFactory;
+import io.netty.util.concurrent.ThreadPerTaskExecutor;
+
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport selects the Netty.IO channel and event loop implementations used for sockets.
+ * The native transports are only available on Linux, io_uring also requires the Netty.IO incubator
+ * io_uring transport on the classpath. <code>Transport.best()</code> picks io_uring, then epoll, then NIO,
+ * whichever is available first.
+ */
+public enum Transport {
+    /**
+     * Linux io_uring, using <code>netty-incubator-transport-native-io_uring</code> when it is on the classpath
+     */
+    IO_URING {
+        @Override
+        protected boolean checkAvailable() {
+            try {
+                return (Boolean) Class.forName(URING_PACKAGE + "IOUring").getMethod("isAvailable").invoke(null);
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                return false;
+            }
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            try {
+                return (EventLoopGroup) Class.forName(URING_PACKAGE + "IOUringEventLoopGroup")
+                        .getConstructor(int.class, ThreadFactory.class).newInstance(threads, threadFactory);
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException("io_uring transport is not available", ex);
+            }
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverSocketChannel() {
+            return uringClass("IOUringServerSocketChannel", ServerSocketChannel.class);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannel() {
+            return uringClass("IOUringSocketChannel", SocketChannel.class);
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> datagramChannel() {
+            return uringClass("IOUringDatagramChannel", DatagramChannel.class);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ChannelOption<Boolean> tcpQuickAck() {
+            return (ChannelOption<Boolean>) uringOption("TCP_QUICKACK");
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ChannelOption<Integer> busyPoll() {
+            return (ChannelOption<Integer>) uringOption("SO_BUSY_POLL");
+        }
+    },
+
+    /**
+     * Linux epoll, with edge triggered IO
+     */
+    EPOLL {
+        @Override
+        protected boolean checkAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, EventExecutorChooserFactory chooserFactory) {
+            return new EpollEventLoopGroup(threads, new ThreadPerTaskExecutor(threadFactory), chooserFactory,
+                    DefaultSelectStrategyFactory.INSTANCE);
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverSocketChannel() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannel() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> datagramChannel() {
+            return EpollDatagramChannel.class;
+        }
+
+        @Override
+        public ChannelOption<Boolean> tcpQuickAck() {
+            return EpollChannelOption.TCP_QUICKACK;
+        }
+
+        @Override
+        public ChannelOption<Integer> busyPoll() {
+            return EpollChannelOption.SO_BUSY_POLL;
+        }
+    },
+
+    /**
+     * Java NIO, available on all platforms
+     */
+    NIO {
+        @Override
+        protected boolean checkAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new NioEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, EventExecutorChooserFactory chooserFactory) {
+            return new NioEventLoopGroup(threads, new ThreadPerTaskExecutor(threadFactory), chooserFactory,
+                    SelectorProvider.provider(), DefaultSelectStrategyFactory.INSTANCE);
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverSocketChannel() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannel() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> datagramChannel() {
+            return NioDatagramChannel.class;
+        }
+    };
+
+    private final static Logger LOGGER = Logger.getLogger(Transport.class.getName());
+    private static final String URING_PACKAGE = "io.netty.incubator.channel.uring.";
+
+    private volatile Boolean available;
+
+    /**
+     * @return If the transport can be used on this platform
+     */
+    public boolean isAvailable() {
+        Boolean result = available;
+        if (result == null) {
+            try {
+                result = checkAvailable();
+            } catch (LinkageError ex) {
+                result = false;
+            }
+            available = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return The first available transport of io_uring, epoll and NIO
+     */
+    public static Transport best() {
+        for (Transport transport : values()) {
+            if (transport.isAvailable()) {
+                LOGGER.log(Level.FINE, "Using {0} transport", transport);
+                return transport;
+            }
+        }
+        return NIO;
+    }
+
+    /**
+     * Internal use only
+     *
+     * @return If the transport can be used on this platform
+     */
+    protected abstract boolean checkAvailable();
+
+    /**
+     * Create an event loop group for the channels of this transport.
+     *
+     * @param threads       The number of threads, or 0 for the Netty.IO default
+     * @param threadFactory The factory creating the threads
+     * @return The event loop group
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory);
+
+    /**
+     * Create an event loop group for the channels of this transport, choosing the event loop of each new channel
+     * with the given chooser.
+     * The io_uring event loop group does not take a chooser, it always uses the Netty.IO default chooser.
+     *
+     * @param threads        The number of threads, or 0 for the Netty.IO default
+     * @param threadFactory  The factory creating the threads
+     * @param chooserFactory The factory creating the event loop chooser
+     * @return The event loop group
+     */
+    public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, EventExecutorChooserFactory chooserFactory) {
+        LOGGER.log(Level.FINE, "{0} transport does not support custom event loop choosers", this);
+        return newEventLoopGroup(threads, threadFactory);
+    }
+
+    /**
+     * @return The TCP server socket channel class of this transport
+     */
+    public abstract Class<? extends ServerSocketChannel> serverSocketChannel();
+
+    /**
+     * @return The TCP socket channel class of this transport
+     */
+    public abstract Class<? extends SocketChannel> socketChannel();
+
+    /**
+     * @return The UDP datagram channel class of this transport
+     */
+    public abstract Class<? extends DatagramChannel> datagramChannel();
+
+    /**
+     * <code>TCP_QUICKACK</code> sends acknowledgements immediately instead of delaying them.
+     *
+     * @return The <code>TCP_QUICKACK</code> option, or null if the transport does not support it
+     */
+    public ChannelOption<Boolean> tcpQuickAck() {
+        return null;
+    }
+
+    /**
+     * <code>SO_BUSY_POLL</code> busy polls the network device for the given microseconds when reading a socket
+     * that has no data, trading CPU for lower latency.
+     *
+     * @return The <code>SO_BUSY_POLL</code> option, or null if the transport does not support it
+     */
+    public ChannelOption<Integer> busyPoll() {
+        return null;
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param name The class name in the io_uring transport package
+     * @param type The type of the class
+     * @param <T>  The type of the class
+     * @return The io_uring transport class
+     */
+    private static <T> Class<? extends T> uringClass(String name, Class<T> type) {
+        try {
+            return Class.forName(URING_PACKAGE + name).asSubclass(type);
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException("io_uring transport is not available", ex);
+        }
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param name The name of the option in <code>IOUringChannelOption</code>
+     * @return The option, or null if the io_uring transport does not have it
+     */
+    private static ChannelOption<?> uringOption(String name) {
+        try {
+            return (ChannelOption<?>) Class.forName(URING_PACKAGE + "IOUringChannelOption").getField(name).get(null);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return null;
+        }
+    }
+}
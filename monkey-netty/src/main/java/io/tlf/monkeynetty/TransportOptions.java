@@ -0,0 +1,261 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.bootstrap.AbstractBootstrap;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+
+/**
+ * TransportOptions holds the socket options applied to the TCP and UDP channels of a server or client.
+ * A size of 0 leaves the operating system or Netty.IO default in place.
+ * <p>
+ * The presets tune the options for common networks:
+ * <ul>
+ * <li><code>lan()</code> for low latency networks with plenty of bandwidth, such as a LAN or data center</li>
+ * <li><code>wanLatency()</code> for latency sensitive games over the internet, keeping socket buffers small
+ * so messages do not queue behind each other</li>
+ * <li><code>bulk()</code> for throughput over latency, such as transferring assets, batching small writes with Nagle</li>
+ * </ul>
+ * The default options only disable Nagle's algorithm with <code>TCP_NODELAY</code>.
+ */
+public class TransportOptions {
+
+    private boolean tcpNoDelay = true;
+    private int tcpSendBufferSize = 0;
+    private int tcpReceiveBufferSize = 0;
+    private int udpSendBufferSize = 0;
+    private int udpReceiveBufferSize = 0;
+    private int backlog = 0;
+    private WriteBufferWaterMark writeBufferWaterMark;
+
+    /**
+     * @return Options for low latency networks with plenty of bandwidth
+     */
+    public static TransportOptions lan() {
+        TransportOptions options = new TransportOptions();
+        options.setTcpBufferSizes(256 * 1024, 256 * 1024);
+        options.setUdpBufferSizes(1024 * 1024, 1024 * 1024);
+        options.setWriteBufferWaterMark(32 * 1024, 128 * 1024);
+        options.setBacklog(128);
+        return options;
+    }
+
+    /**
+     * @return Options for latency sensitive traffic over the internet
+     */
+    public static TransportOptions wanLatency() {
+        TransportOptions options = new TransportOptions();
+        options.setTcpBufferSizes(64 * 1024, 64 * 1024);
+        options.setUdpBufferSizes(256 * 1024, 256 * 1024);
+        options.setWriteBufferWaterMark(8 * 1024, 32 * 1024);
+        options.setBacklog(128);
+        return options;
+    }
+
+    /**
+     * @return Options for throughput over latency
+     */
+    public static TransportOptions bulk() {
+        TransportOptions options = new TransportOptions();
+        options.setTcpNoDelay(false);
+        options.setTcpBufferSizes(1024 * 1024, 1024 * 1024);
+        options.setUdpBufferSizes(4 * 1024 * 1024, 4 * 1024 * 1024);
+        options.setWriteBufferWaterMark(256 * 1024, 1024 * 1024);
+        options.setBacklog(1024);
+        return options;
+    }
+
+    /**
+     * Sets if Nagle's algorithm is disabled on TCP connections, so small messages are sent immediately
+     * instead of waiting to be combined. By default this is true.
+     *
+     * @param tcpNoDelay If <code>TCP_NODELAY</code> is set
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * @return If <code>TCP_NODELAY</code> is set
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Sets the <code>SO_SNDBUF</code> and <code>SO_RCVBUF</code> sizes of TCP connections in bytes.
+     *
+     * @param sendBufferSize    The send buffer size, or 0 for the default
+     * @param receiveBufferSize The receive buffer size, or 0 for the default
+     */
+    public void setTcpBufferSizes(int sendBufferSize, int receiveBufferSize) {
+        checkSize(sendBufferSize);
+        checkSize(receiveBufferSize);
+        this.tcpSendBufferSize = sendBufferSize;
+        this.tcpReceiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * @return The <code>SO_SNDBUF</code> size of TCP connections, or 0 for the default
+     */
+    public int getTcpSendBufferSize() {
+        return tcpSendBufferSize;
+    }
+
+    /**
+     * @return The <code>SO_RCVBUF</code> size of TCP connections, or 0 for the default
+     */
+    public int getTcpReceiveBufferSize() {
+        return tcpReceiveBufferSize;
+    }
+
+    /**
+     * Sets the <code>SO_SNDBUF</code> and <code>SO_RCVBUF</code> sizes of UDP sockets in bytes.
+     * The server shares its UDP sockets between clients, so they should be larger than those of a TCP connection.
+     *
+     * @param sendBufferSize    The send buffer size, or 0 for the default
+     * @param receiveBufferSize The receive buffer size, or 0 for the default
+     */
+    public void setUdpBufferSizes(int sendBufferSize, int receiveBufferSize) {
+        checkSize(sendBufferSize);
+        checkSize(receiveBufferSize);
+        this.udpSendBufferSize = sendBufferSize;
+        this.udpReceiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * @return The <code>SO_SNDBUF</code> size of UDP sockets, or 0 for the default
+     */
+    public int getUdpSendBufferSize() {
+        return udpSendBufferSize;
+    }
+
+    /**
+     * @return The <code>SO_RCVBUF</code> size of UDP sockets, or 0 for the default
+     */
+    public int getUdpReceiveBufferSize() {
+        return udpReceiveBufferSize;
+    }
+
+    /**
+     * Sets the number of TCP connections the server queues before they are accepted.
+     *
+     * @param backlog The accept backlog, or 0 for the default
+     */
+    public void setBacklog(int backlog) {
+        checkSize(backlog);
+        this.backlog = backlog;
+    }
+
+    /**
+     * @return The accept backlog, or 0 for the default
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Sets the number of bytes queued for writing on a TCP connection at which it stops being writable,
+     * and the number it must drain below to become writable again.
+     *
+     * @param low  The low water mark in bytes
+     * @param high The high water mark in bytes
+     */
+    public void setWriteBufferWaterMark(int low, int high) {
+        this.writeBufferWaterMark = new WriteBufferWaterMark(low, high);
+    }
+
+    /**
+     * @return The write buffer water mark of TCP connections, or null for the default
+     */
+    public WriteBufferWaterMark getWriteBufferWaterMark() {
+        return writeBufferWaterMark;
+    }
+
+    /**
+     * Internal use only
+     * Apply the options to a TCP server, the backlog to the server and the rest to accepted connections.
+     *
+     * @param bootstrap The TCP server bootstrap
+     */
+    public void applyTcp(ServerBootstrap bootstrap) {
+        if (backlog > 0) {
+            bootstrap.option(ChannelOption.SO_BACKLOG, backlog);
+        }
+        bootstrap.childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if (tcpSendBufferSize > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, tcpSendBufferSize);
+        }
+        if (tcpReceiveBufferSize > 0) {
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, tcpReceiveBufferSize);
+        }
+        if (writeBufferWaterMark != null) {
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
+        }
+    }
+
+    /**
+     * Internal use only
+     * Apply the options to a TCP client.
+     *
+     * @param bootstrap The TCP client bootstrap
+     */
+    public void applyTcp(Bootstrap bootstrap) {
+        bootstrap.option(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if (tcpSendBufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, tcpSendBufferSize);
+        }
+        if (tcpReceiveBufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, tcpReceiveBufferSize);
+        }
+        if (writeBufferWaterMark != null) {
+            bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
+        }
+    }
+
+    /**
+     * Internal use only
+     * Apply the options to a UDP socket.
+     *
+     * @param bootstrap The UDP bootstrap
+     */
+    public void applyUdp(AbstractBootstrap<?, ?> bootstrap) {
+        if (udpSendBufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, udpSendBufferSize);
+        }
+        if (udpReceiveBufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, udpReceiveBufferSize);
+        }
+    }
+
+    private static void checkSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size must not be negative");
+        }
+    }
+}
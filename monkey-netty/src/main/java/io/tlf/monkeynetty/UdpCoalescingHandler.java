@@ -0,0 +1,190 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * UdpCoalescingHandler packs the datagrams written between flushes into as few datagrams as possible,
+ * each no larger than the datagram size. A datagram holding more than one packed datagram starts with
+ * <code>UdpDeliveryHandler.KIND_COALESCED</code>, followed by each packed datagram prefixed with its length.
+ * Datagrams are written individually when there is only one to send, or when one is larger than the datagram size.
+ * When the written datagrams fill the datagram size they are sent without waiting for the flush.
+ * <p>
+ * Inbound, coalesced datagrams are split back into the datagrams they were packed from, all other datagrams
+ * are passed on as they are. Datagram payloads are accepted as <code>ByteBuf</code> on server channels,
+ * or as <code>DatagramPacket</code> on client channels.
+ */
+public class UdpCoalescingHandler extends ChannelDuplexHandler {
+
+    private final static Logger LOGGER = Logger.getLogger(UdpCoalescingHandler.class.getName());
+
+    /**
+     * The default datagram size, small enough to avoid IP fragmentation on most internet paths
+     */
+    public static final int DEFAULT_DATAGRAM_SIZE = 1200;
+
+    /**
+     * The smallest datagram size the server and client accept
+     */
+    public static final int MIN_DATAGRAM_SIZE = 64;
+
+    private final int datagramSize;
+    private final List<ByteBuf> pending = new ArrayList<>();
+    private final List<ChannelPromise> promises = new ArrayList<>();
+    private int pendingSize = 1;
+
+    /**
+     * Creates a new handler using <code>DEFAULT_DATAGRAM_SIZE</code>.
+     */
+    public UdpCoalescingHandler() {
+        this(DEFAULT_DATAGRAM_SIZE);
+    }
+
+    /**
+     * Creates a new handler.
+     *
+     * @param datagramSize The largest datagram payload to build, in bytes, at least <code>MIN_DATAGRAM_SIZE</code>
+     */
+    public UdpCoalescingHandler(int datagramSize) {
+        this.datagramSize = datagramSize;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf datagram = (ByteBuf) msg;
+        int size = NetworkBuffers.varIntSize(datagram.readableBytes()) + datagram.readableBytes();
+        if (pendingSize + size > datagramSize) {
+            boolean full = !pending.isEmpty();
+            writePending(ctx);
+            if (full) {
+                ctx.flush();
+            }
+            if (1 + size > datagramSize) {
+                ctx.write(datagram, promise);
+                return;
+            }
+        }
+        pending.add(datagram);
+        promises.add(promise);
+        pendingSize += size;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        writePending(ctx);
+        ctx.flush();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        DatagramPacket packet = msg instanceof DatagramPacket ? (DatagramPacket) msg : null;
+        ByteBuf in = packet != null ? packet.content() : msg instanceof ByteBuf ? (ByteBuf) msg : null;
+        if (in == null || !in.isReadable() || in.getUnsignedByte(in.readerIndex()) != UdpDeliveryHandler.KIND_COALESCED) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        try {
+            in.skipBytes(1);
+            while (in.isReadable()) {
+                ByteBuf datagram = in.readRetainedSlice(NetworkBuffers.readVarInt(in));
+                ctx.fireChannelRead(packet == null ? datagram : new DatagramPacket(datagram, packet.recipient(), packet.sender()));
+            }
+        } catch (IndexOutOfBoundsException | NetworkMessageException ex) {
+            LOGGER.log(Level.FINE, "Dropped the remainder of a malformed coalesced datagram");
+        } finally {
+            if (packet != null) {
+                packet.release();
+            } else {
+                in.release();
+            }
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        for (ByteBuf datagram : pending) {
+            datagram.release();
+        }
+        for (ChannelPromise promise : promises) {
+            promise.tryFailure(new ClosedChannelException());
+        }
+        pending.clear();
+        promises.clear();
+        pendingSize = 1;
+    }
+
+    /**
+     * Internal use only
+     * Write the pending datagrams, packed into a single datagram if there is more than one.
+     * The promises of the packed datagrams are completed when the single datagram is written.
+     *
+     * @param ctx The handler context
+     */
+    private void writePending(ChannelHandlerContext ctx) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (pending.size() == 1) {
+            ctx.write(pending.get(0), promises.get(0));
+        } else {
+            ByteBuf packed = ctx.alloc().ioBuffer(pendingSize);
+            packed.writeByte(UdpDeliveryHandler.KIND_COALESCED);
+            for (ByteBuf datagram : pending) {
+                NetworkBuffers.writeVarInt(packed, datagram.readableBytes());
+                packed.writeBytes(datagram, datagram.readerIndex(), datagram.readableBytes());
+                datagram.release();
+            }
+            ChannelPromise[] packedPromises = promises.toArray(new ChannelPromise[0]);
+            ctx.write(packed).addListener((ChannelFutureListener) future -> {
+                for (ChannelPromise promise : packedPromises) {
+                    if (future.isSuccess()) {
+                        promise.trySuccess();
+                    } else {
+                        promise.tryFailure(future.cause());
+                    }
+                }
+            });
+        }
+        pending.clear();
+        promises.clear();
+        pendingSize = 1;
+    }
+}
@@ -0,0 +1,601 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * UdpDeliveryHandler sits between a UDP channel and the message codecs, adding a header to each datagram
+ * that describes how the frame within it is delivered.
+ * <p>
+ * <code>NetworkProtocol.UDP</code> frames are sent once, and passed on as they are received.
+ * <code>NetworkProtocol.UDP_RELIABLE</code> frames are given a sequence number and resent until the remote side
+ * acknowledges them, received reliable frames are passed on in sequence. Each reliable datagram carries the
+ * acknowledgement of the reliable frames received from the remote side, a separate acknowledgement is only sent
+ * when there is no reliable frame to carry it. Frames are resent after a timeout based on the measured round trip
+ * time, and at most <code>window</code> frames are awaiting acknowledgement at once, further frames are held
+ * until earlier frames are acknowledged.
+ * <code>NetworkProtocol.UDP_SEQUENCED</code> frames are sent once with a sequence number for their sequence channel,
+ * a received frame older than the newest frame already received on its channel is discarded before it is decoded.
+ * At most <code>MAX_SEQUENCE_CHANNELS</code> channels are tracked for received frames, frames on further channels
+ * are discarded, so a remote side can not grow the receive state without limit.
+ * <p>
+ * Inbound, datagram payloads are accepted as <code>ByteBuf</code> on server channels, or as
+ * <code>DatagramPacket</code> on client channels, and each frame is passed on in the same form.
+ * Outbound, <code>UdpFrame</code> messages are written as <code>ByteBuf</code> datagram payloads.
+ */
+public class UdpDeliveryHandler extends ChannelDuplexHandler {
+
+    private final static Logger LOGGER = Logger.getLogger(UdpDeliveryHandler.class.getName());
+
+    /**
+     * The default number of reliable frames that may be awaiting acknowledgement
+     */
+    public static final int DEFAULT_WINDOW = 256;
+
+    /**
+     * The maximum number of sequence channels frames are received on
+     */
+    public static final int MAX_SEQUENCE_CHANNELS = 4096;
+
+    static final int KIND_UNRELIABLE = 0;
+    static final int KIND_RELIABLE = 1;
+    static final int KIND_ACK = 2;
+    static final int KIND_SEQUENCED = 3;
+    static final int KIND_COALESCED = 4;
+    static final int KIND_FRAGMENT = 5;
+
+    /**
+     * The kind of the first datagram a client sends to open a UDP session, carrying the cookie it was issued
+     * over TCP in front of the datagram
+     */
+    public static final int KIND_HANDSHAKE = 6;
+
+    private static final int SEQUENCE_MASK = 0xFFFF;
+    private static final int ACK_BITS = 32;
+    private static final int ACK_HEADER = 7;
+    private static final int RELIABLE_HEADER = 9;
+    private static final long INITIAL_RTO = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long MIN_RTO = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long MAX_RTO = TimeUnit.SECONDS.toNanos(1);
+    private static final long RESEND_CHECK = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long RELIABLE_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    private final int window;
+    private final int windowMask;
+
+    //Send state
+    private final Pending[] sent;
+    private final ArrayDeque<Pending> backlog = new ArrayDeque<>();
+    private int nextSendSeq = 0;
+    private int oldestUnacked = 0;
+    private int inFlight = 0;
+    private long srtt = -1;
+    private long rttvar = 0;
+    private long rto = INITIAL_RTO;
+    private ScheduledFuture<?> resendTask;
+    private final IntObjectMap<Sequence> sendSequences = new IntObjectHashMap<>();
+
+    //Receive state
+    private final ByteBuf[] received;
+    private int nextExpected = 0;
+    private boolean ackPending = false;
+    private final IntObjectMap<Sequence> receiveSequences = new IntObjectHashMap<>();
+
+    /**
+     * Creates a new handler allowing <code>DEFAULT_WINDOW</code> reliable frames awaiting acknowledgement.
+     */
+    public UdpDeliveryHandler() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Creates a new handler.
+     * The remote side should use the same window size.
+     *
+     * @param window The number of reliable frames that may be awaiting acknowledgement,
+     *               a power of two no greater than 16384
+     */
+    public UdpDeliveryHandler(int window) {
+        if (window < 1 || window > 16384 || Integer.bitCount(window) != 1) {
+            throw new IllegalArgumentException("Window must be a power of two between 1 and 16384");
+        }
+        this.window = window;
+        this.windowMask = window - 1;
+        this.sent = new Pending[window];
+        this.received = new ByteBuf[window];
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof UdpFrame)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        UdpFrame frame = (UdpFrame) msg;
+        try {
+            if (frame.protocol() == NetworkProtocol.UDP_RELIABLE) {
+                Pending pending = new Pending(frame.content().retain(), promise);
+                if (canSend()) {
+                    transmit(ctx, pending);
+                } else {
+                    backlog.add(pending);
+                }
+            } else if (frame.protocol() == NetworkProtocol.UDP_SEQUENCED) {
+                ByteBuf content = frame.content();
+                ByteBuf payload = ctx.alloc().ioBuffer(8 + content.readableBytes());
+                payload.writeByte(KIND_SEQUENCED);
+                NetworkBuffers.writeVarInt(payload, frame.channel());
+                payload.writeShort(nextSequence(frame.channel()));
+                payload.writeBytes(content, content.readerIndex(), content.readableBytes());
+                ctx.write(payload, promise);
+            } else {
+                ByteBuf content = frame.content();
+                ByteBuf payload = ctx.alloc().ioBuffer(1 + content.readableBytes());
+                payload.writeByte(KIND_UNRELIABLE);
+                payload.writeBytes(content, content.readerIndex(), content.readableBytes());
+                ctx.write(payload, promise);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof DatagramPacket) {
+            DatagramPacket packet = (DatagramPacket) msg;
+            try {
+                read(ctx, packet.content(), packet);
+            } finally {
+                packet.release();
+            }
+        } else if (msg instanceof ByteBuf) {
+            ByteBuf payload = (ByteBuf) msg;
+            try {
+                read(ctx, payload, null);
+            } finally {
+                payload.release();
+            }
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (ackPending) {
+            ackPending = false;
+            ByteBuf ack = ctx.alloc().ioBuffer(ACK_HEADER);
+            ack.writeByte(KIND_ACK);
+            ack.writeShort((nextExpected - 1) & SEQUENCE_MASK);
+            ack.writeInt(ackBits());
+            ctx.writeAndFlush(ack, ctx.voidPromise());
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseAll();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseAll();
+    }
+
+    /**
+     * Internal use only
+     * Reads the header of a received datagram, and passes on the frame within it when it is to be delivered.
+     *
+     * @param ctx     The handler context
+     * @param in      The datagram payload
+     * @param packet  The datagram packet the payload was received in, or null on server channels
+     */
+    private void read(ChannelHandlerContext ctx, ByteBuf in, DatagramPacket packet) {
+        if (!in.isReadable()) {
+            return;
+        }
+        int kind = in.readUnsignedByte();
+        try {
+            read(ctx, kind, in, packet);
+        } catch (IndexOutOfBoundsException | NetworkMessageException ex) {
+            LOGGER.log(Level.FINE, "Dropped malformed datagram of kind {0}", kind);
+        }
+    }
+
+    /**
+     * Internal use only
+     * Reads the remaining header of a received datagram by kind.
+     *
+     * @param ctx    The handler context
+     * @param kind   The kind of datagram
+     * @param in     The datagram payload, after the kind
+     * @param packet The datagram packet the payload was received in, or null on server channels
+     */
+    private void read(ChannelHandlerContext ctx, int kind, ByteBuf in, DatagramPacket packet) {
+        switch (kind) {
+            case KIND_UNRELIABLE:
+                fire(ctx, in.retainedSlice(), packet);
+                break;
+            case KIND_RELIABLE:
+                int seq = in.readUnsignedShort();
+                acknowledge(ctx, in.readUnsignedShort(), in.readInt());
+                receive(ctx, seq, in, packet);
+                break;
+            case KIND_ACK:
+                acknowledge(ctx, in.readUnsignedShort(), in.readInt());
+                break;
+            case KIND_SEQUENCED:
+                int channel = NetworkBuffers.readVarInt(in);
+                if (isNewest(channel, in.readUnsignedShort())) {
+                    fire(ctx, in.retainedSlice(), packet);
+                }
+                break;
+            default:
+                LOGGER.log(Level.FINE, "Dropped datagram of unknown kind {0}", kind);
+        }
+    }
+
+    /**
+     * Internal use only
+     * Passes on a received reliable frame if it is the next in sequence, followed by any held frames that follow it.
+     * Frames received ahead of sequence are held until the frames before them are received.
+     *
+     * @param ctx    The handler context
+     * @param seq    The sequence number of the frame
+     * @param in     The frame
+     * @param packet The datagram packet the frame was received in, or null on server channels
+     */
+    private void receive(ChannelHandlerContext ctx, int seq, ByteBuf in, DatagramPacket packet) {
+        ackPending = true;
+        int distance = (short) (seq - nextExpected);
+        if (distance < 0 || distance >= window) {
+            return; //Already delivered, or too far ahead to hold
+        }
+        if (distance > 0) {
+            if (received[seq & windowMask] == null) {
+                received[seq & windowMask] = ctx.alloc().buffer(in.readableBytes()).writeBytes(in);
+            }
+            return;
+        }
+        fire(ctx, in.retainedSlice(), packet);
+        nextExpected = (nextExpected + 1) & SEQUENCE_MASK;
+        ByteBuf held;
+        while ((held = received[nextExpected & windowMask]) != null) {
+            received[nextExpected & windowMask] = null;
+            fire(ctx, held, packet);
+            nextExpected = (nextExpected + 1) & SEQUENCE_MASK;
+        }
+    }
+
+    /**
+     * Internal use only
+     * Assigns the next sequence number on a sequence channel.
+     *
+     * @param channel The sequence channel
+     * @return The sequence number
+     */
+    private int nextSequence(int channel) {
+        Sequence sequence = sendSequences.get(channel);
+        if (sequence == null) {
+            sequence = new Sequence(0);
+            sendSequences.put(channel, sequence);
+        }
+        int seq = sequence.value;
+        sequence.value = (seq + 1) & SEQUENCE_MASK;
+        return seq;
+    }
+
+    /**
+     * Internal use only
+     * Checks a received sequence number against the newest received on its sequence channel,
+     * recording it if it is newer.
+     *
+     * @param channel The sequence channel
+     * @param seq     The sequence number received
+     * @return If the frame is newer than all frames received on the channel, false if the channel can not be tracked
+     */
+    private boolean isNewest(int channel, int seq) {
+        Sequence sequence = receiveSequences.get(channel);
+        if (sequence == null) {
+            if (receiveSequences.size() >= MAX_SEQUENCE_CHANNELS) {
+                LOGGER.log(Level.FINE, "Dropped sequenced datagram on channel {0}, too many sequence channels", channel);
+                return false;
+            }
+            receiveSequences.put(channel, new Sequence(seq));
+            return true;
+        }
+        if ((short) (seq - sequence.value) <= 0) {
+            return false;
+        }
+        sequence.value = seq;
+        return true;
+    }
+
+    /**
+     * Internal use only
+     * Passes on a received frame in the same form as the datagram it was received in.
+     *
+     * @param ctx    The handler context
+     * @param frame  The frame
+     * @param packet The datagram packet the frame was received in, or null on server channels
+     */
+    private void fire(ChannelHandlerContext ctx, ByteBuf frame, DatagramPacket packet) {
+        ctx.fireChannelRead(packet == null ? frame : new DatagramPacket(frame, packet.recipient(), packet.sender()));
+    }
+
+    /**
+     * Internal use only
+     * Builds the acknowledgement bitfield for the reliable frames held ahead of sequence.
+     * Bit <code>i</code> is set if the frame <code>i + 1</code> after the next expected frame has been received.
+     *
+     * @return The acknowledgement bitfield
+     */
+    private int ackBits() {
+        int bits = 0;
+        for (int i = 0; i < ACK_BITS && i + 1 < window; i++) {
+            if (received[(nextExpected + 1 + i) & windowMask] != null) {
+                bits |= 1 << i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Internal use only
+     * Process an acknowledgement from the remote side, then send any held frames that now fit in the window.
+     *
+     * @param ctx  The handler context
+     * @param ack  The sequence number of the last frame received in sequence
+     * @param bits The acknowledgement bitfield of the frames received ahead of sequence
+     */
+    private void acknowledge(ChannelHandlerContext ctx, int ack, int bits) {
+        long now = System.nanoTime();
+        for (int seq = oldestUnacked; seq != nextSendSeq && (short) (ack - seq) >= 0; seq = (seq + 1) & SEQUENCE_MASK) {
+            acknowledge(seq, now);
+        }
+        for (int i = 0; i < ACK_BITS; i++) {
+            if ((bits & (1 << i)) != 0) {
+                acknowledge((ack + 2 + i) & SEQUENCE_MASK, now);
+            }
+        }
+        while (oldestUnacked != nextSendSeq && sent[oldestUnacked & windowMask] == null) {
+            oldestUnacked = (oldestUnacked + 1) & SEQUENCE_MASK;
+        }
+        if (!backlog.isEmpty() && canSend()) {
+            while (!backlog.isEmpty() && canSend()) {
+                transmit(ctx, backlog.poll());
+            }
+            ctx.flush();
+        }
+    }
+
+    /**
+     * Internal use only
+     * Mark a sent frame as acknowledged, measuring the round trip time if it was sent once.
+     *
+     * @param seq The sequence number of the frame
+     * @param now The current time in nanoseconds
+     */
+    private void acknowledge(int seq, long now) {
+        Pending pending = sent[seq & windowMask];
+        if (pending == null || pending.seq != seq) {
+            return;
+        }
+        if (pending.transmissions == 1) {
+            updateRto(now - pending.firstSent);
+        }
+        sent[seq & windowMask] = null;
+        inFlight--;
+        pending.frame.release();
+    }
+
+    /**
+     * Internal use only
+     * Update the retransmission timeout from a round trip time sample, as done by TCP (RFC 6298).
+     *
+     * @param sample The round trip time in nanoseconds
+     */
+    private void updateRto(long sample) {
+        if (srtt < 0) {
+            srtt = sample;
+            rttvar = sample / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - sample)) / 4;
+            srtt = (7 * srtt + sample) / 8;
+        }
+        rto = Math.max(MIN_RTO, Math.min(MAX_RTO, srtt + Math.max(RESEND_CHECK, 4 * rttvar)));
+    }
+
+    /**
+     * @return If another reliable frame fits in the window
+     */
+    private boolean canSend() {
+        return ((nextSendSeq - oldestUnacked) & SEQUENCE_MASK) < window;
+    }
+
+    /**
+     * Internal use only
+     * Send a reliable frame for the first time, assigning its sequence number.
+     *
+     * @param ctx     The handler context
+     * @param pending The frame to send
+     */
+    private void transmit(ChannelHandlerContext ctx, Pending pending) {
+        pending.seq = nextSendSeq;
+        nextSendSeq = (nextSendSeq + 1) & SEQUENCE_MASK;
+        sent[pending.seq & windowMask] = pending;
+        inFlight++;
+        pending.firstSent = pending.lastSent = System.nanoTime();
+        pending.transmissions = 1;
+        ctx.write(reliableDatagram(ctx, pending), pending.promise);
+        pending.promise = null;
+        scheduleResend(ctx);
+    }
+
+    /**
+     * Internal use only
+     * Builds the datagram for a reliable frame, carrying the current acknowledgement.
+     *
+     * @param ctx     The handler context
+     * @param pending The frame to send
+     * @return The datagram payload
+     */
+    private ByteBuf reliableDatagram(ChannelHandlerContext ctx, Pending pending) {
+        ByteBuf frame = pending.frame;
+        ByteBuf payload = ctx.alloc().ioBuffer(RELIABLE_HEADER + frame.readableBytes());
+        payload.writeByte(KIND_RELIABLE);
+        payload.writeShort(pending.seq);
+        payload.writeShort((nextExpected - 1) & SEQUENCE_MASK);
+        payload.writeInt(ackBits());
+        payload.writeBytes(frame, frame.readerIndex(), frame.readableBytes());
+        ackPending = false;
+        return payload;
+    }
+
+    /**
+     * Internal use only
+     * Schedule the next check for reliable frames to resend, if not already scheduled.
+     *
+     * @param ctx The handler context
+     */
+    private void scheduleResend(ChannelHandlerContext ctx) {
+        if (resendTask == null) {
+            resendTask = ctx.executor().schedule(() -> resend(ctx), RESEND_CHECK, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Internal use only
+     * Resend the reliable frames that have not been acknowledged within the retransmission timeout.
+     * The timeout doubles each time a frame is resent, up to eight times the measured timeout. If a frame is not acknowledged within
+     * <code>RELIABLE_TIMEOUT</code> the remote side is considered lost.
+     *
+     * @param ctx The handler context
+     */
+    private void resend(ChannelHandlerContext ctx) {
+        resendTask = null;
+        if (inFlight == 0 || !ctx.channel().isActive()) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean written = false;
+        for (int seq = oldestUnacked; seq != nextSendSeq; seq = (seq + 1) & SEQUENCE_MASK) {
+            Pending pending = sent[seq & windowMask];
+            if (pending == null) {
+                continue;
+            }
+            if (now - pending.firstSent > RELIABLE_TIMEOUT) {
+                releaseAll();
+                ctx.fireExceptionCaught(new NetworkMessageException("Reliable UDP message was not acknowledged by " + ctx.channel().remoteAddress()));
+                return;
+            }
+            long timeout = Math.min(MAX_RTO, rto << Math.min(pending.transmissions - 1, 3));
+            if (now - pending.lastSent >= timeout) {
+                pending.transmissions++;
+                pending.lastSent = now;
+                ctx.write(reliableDatagram(ctx, pending), ctx.voidPromise());
+                written = true;
+            }
+        }
+        if (written) {
+            ctx.flush();
+        }
+        scheduleResend(ctx);
+    }
+
+    /**
+     * Internal use only
+     * Release all held frames, failing any frames that were never sent.
+     */
+    private void releaseAll() {
+        if (resendTask != null) {
+            resendTask.cancel(false);
+            resendTask = null;
+        }
+        for (int i = 0; i < window; i++) {
+            if (sent[i] != null) {
+                sent[i].frame.release();
+                sent[i] = null;
+            }
+            ReferenceCountUtil.release(received[i]);
+            received[i] = null;
+        }
+        inFlight = 0;
+        oldestUnacked = nextSendSeq;
+        Pending pending;
+        while ((pending = backlog.poll()) != null) {
+            pending.frame.release();
+            pending.promise.tryFailure(new ClosedChannelException());
+        }
+    }
+
+    /**
+     * Internal use only
+     * The current sequence number of a sequence channel.
+     */
+    private static class Sequence {
+        private int value;
+
+        private Sequence(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Internal use only
+     * A reliable frame awaiting acknowledgement.
+     */
+    private static class Pending {
+        private final ByteBuf frame;
+        private ChannelPromise promise;
+        private int seq;
+        private int transmissions;
+        private long firstSent;
+        private long lastSent;
+
+        private Pending(ByteBuf frame, ChannelPromise promise) {
+            this.frame = frame;
+            this.promise = promise;
+        }
+    }
+}
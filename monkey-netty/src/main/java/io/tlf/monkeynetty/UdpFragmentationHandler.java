@@ -0,0 +1,291 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.concurrent.PromiseCombiner;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * UdpFragmentationHandler splits datagrams larger than the datagram size into fragments, so they are not
+ * left to IP fragmentation where losing any fragment silently loses the whole datagram.
+ * Each fragment starts with <code>UdpDeliveryHandler.KIND_FRAGMENT</code>, followed by the fragment id shared by
+ * the fragments of a datagram, the index of the fragment and the number of fragments. Every fragment but the last
+ * carries <code>datagramSize - 7</code> bytes of the datagram, so both peers must use the same datagram size.
+ * <p>
+ * Inbound, fragments are held until all fragments of their datagram have been received, then the datagram is
+ * passed on whole as a composite of the received fragments, without copying them. At most <code>MAX_PARTIAL_DATAGRAMS</code> datagrams are held at once, the oldest is discarded to
+ * make room for another, and a datagram is discarded if all of its fragments are not received within
+ * <code>REASSEMBLY_TIMEOUT</code>. Fragments claiming more fragments than a datagram of the largest size needs, and
+ * fragments other than the last that are shorter than the fragment size, are dropped. Datagram payloads are accepted as <code>ByteBuf</code> on server channels,
+ * or as <code>DatagramPacket</code> on client channels.
+ */
+public class UdpFragmentationHandler extends ChannelDuplexHandler {
+
+    private final static Logger LOGGER = Logger.getLogger(UdpFragmentationHandler.class.getName());
+
+    /**
+     * The number of partially received datagrams held per channel
+     */
+    public static final int MAX_PARTIAL_DATAGRAMS = 32;
+
+    /**
+     * The time in nanoseconds all fragments of a datagram must be received within
+     */
+    public static final long REASSEMBLY_TIMEOUT = TimeUnit.SECONDS.toNanos(3);
+
+    private static final int FRAGMENT_HEADER = 7;
+    private static final int MAX_FRAGMENTS = 0xFFFF;
+
+    private final int datagramSize;
+    private final int fragmentSize;
+    private final int maxDatagramSize;
+    private final int maxFragments;
+    private final IntObjectMap<Reassembly> partial = new IntObjectHashMap<>();
+    private int nextFragmentId = 0;
+
+    /**
+     * Creates a new handler.
+     *
+     * @param datagramSize    The largest datagram payload to send, in bytes, larger datagrams are fragmented.
+     *                        At least <code>UdpCoalescingHandler.MIN_DATAGRAM_SIZE</code>
+     * @param maxDatagramSize The largest datagram to reassemble, in bytes
+     */
+    public UdpFragmentationHandler(int datagramSize, int maxDatagramSize) {
+        this.datagramSize = datagramSize;
+        this.fragmentSize = datagramSize - FRAGMENT_HEADER;
+        this.maxDatagramSize = maxDatagramSize;
+        this.maxFragments = Math.min(MAX_FRAGMENTS, (maxDatagramSize + fragmentSize - 1) / fragmentSize);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf) || ((ByteBuf) msg).readableBytes() <= datagramSize) {
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf datagram = (ByteBuf) msg;
+        try {
+            int count = (datagram.readableBytes() + fragmentSize - 1) / fragmentSize;
+            if (count > MAX_FRAGMENTS) {
+                promise.setFailure(new NetworkMessageException("Datagram of " + datagram.readableBytes() + " bytes is too large to fragment"));
+                return;
+            }
+            int id = nextFragmentId;
+            nextFragmentId = (nextFragmentId + 1) & 0xFFFF;
+            PromiseCombiner combiner = promise.isVoid() ? null : new PromiseCombiner(ctx.executor());
+            for (int index = 0; index < count; index++) {
+                int length = Math.min(fragmentSize, datagram.readableBytes());
+                ByteBuf fragment = ctx.alloc().ioBuffer(FRAGMENT_HEADER + length);
+                fragment.writeByte(UdpDeliveryHandler.KIND_FRAGMENT);
+                fragment.writeShort(id);
+                fragment.writeShort(index);
+                fragment.writeShort(count);
+                fragment.writeBytes(datagram, length);
+                if (combiner == null) {
+                    ctx.write(fragment, promise);
+                } else {
+                    combiner.add(ctx.write(fragment));
+                }
+            }
+            if (combiner != null) {
+                combiner.finish(promise);
+            }
+        } finally {
+            datagram.release();
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        DatagramPacket packet = msg instanceof DatagramPacket ? (DatagramPacket) msg : null;
+        ByteBuf in = packet != null ? packet.content() : msg instanceof ByteBuf ? (ByteBuf) msg : null;
+        if (in == null || !in.isReadable() || in.getUnsignedByte(in.readerIndex()) != UdpDeliveryHandler.KIND_FRAGMENT) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        try {
+            if (in.readableBytes() < FRAGMENT_HEADER) {
+                LOGGER.log(Level.FINE, "Dropped truncated fragment");
+                return;
+            }
+            in.skipBytes(1);
+            ByteBuf datagram = reassemble(ctx, in.readUnsignedShort(), in.readUnsignedShort(), in.readUnsignedShort(), in);
+            if (datagram != null) {
+                ctx.fireChannelRead(packet == null ? datagram : new DatagramPacket(datagram, packet.recipient(), packet.sender()));
+            }
+        } finally {
+            if (packet != null) {
+                packet.release();
+            } else {
+                in.release();
+            }
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseAll();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseAll();
+    }
+
+    /**
+     * Internal use only
+     * Hold a received fragment, returning the whole datagram once all of its fragments are received.
+     *
+     * @param ctx   The handler context
+     * @param id    The fragment id of the datagram
+     * @param index The index of the fragment
+     * @param count The number of fragments in the datagram
+     * @param in    The fragment payload
+     * @return The reassembled datagram, or null if fragments are still missing
+     */
+    private ByteBuf reassemble(ChannelHandlerContext ctx, int id, int index, int count, ByteBuf in) {
+        if (count == 0 || index >= count || count > maxFragments) {
+            LOGGER.log(Level.FINE, "Dropped malformed fragment");
+            return null;
+        }
+        if (index < count - 1 && in.readableBytes() < fragmentSize) {
+            LOGGER.log(Level.FINE, "Dropped short fragment");
+            return null;
+        }
+        long now = System.nanoTime();
+        evictExpired(now);
+        Reassembly reassembly = partial.get(id);
+        if (reassembly == null) {
+            if (partial.size() >= MAX_PARTIAL_DATAGRAMS) {
+                evictOldest();
+            }
+            reassembly = new Reassembly(count, now);
+            partial.put(id, reassembly);
+        } else if (reassembly.fragments.length != count) {
+            LOGGER.log(Level.FINE, "Dropped datagram with inconsistent fragments");
+            partial.remove(id).release();
+            return null;
+        }
+        if (reassembly.fragments[index] != null) {
+            return null; //Duplicate fragment
+        }
+        reassembly.size += in.readableBytes();
+        if (reassembly.size > maxDatagramSize) {
+            LOGGER.log(Level.FINE, "Dropped fragmented datagram larger than {0} bytes", maxDatagramSize);
+            partial.remove(id).release();
+            return null;
+        }
+        reassembly.fragments[index] = in.retainedSlice();
+        if (++reassembly.received < count) {
+            return null;
+        }
+        partial.remove(id);
+        //The composite takes ownership of the fragments
+        return ctx.alloc().compositeBuffer(count).addComponents(true, reassembly.fragments);
+    }
+
+    /**
+     * Internal use only
+     * Discard the partially received datagrams that have not completed within <code>REASSEMBLY_TIMEOUT</code>.
+     *
+     * @param now The current time in nanoseconds
+     */
+    private void evictExpired(long now) {
+        Iterator<Reassembly> it = partial.values().iterator();
+        while (it.hasNext()) {
+            Reassembly reassembly = it.next();
+            if (now - reassembly.started > REASSEMBLY_TIMEOUT) {
+                reassembly.release();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Internal use only
+     * Discard the oldest partially received datagram.
+     */
+    private void evictOldest() {
+        int oldest = -1;
+        long started = Long.MAX_VALUE;
+        for (IntObjectMap.PrimitiveEntry<Reassembly> entry : partial.entries()) {
+            if (entry.value().started < started) {
+                started = entry.value().started;
+                oldest = entry.key();
+            }
+        }
+        if (oldest >= 0) {
+            partial.remove(oldest).release();
+        }
+    }
+
+    /**
+     * Internal use only
+     * Release all partially received datagrams.
+     */
+    private void releaseAll() {
+        for (Reassembly reassembly : partial.values()) {
+            reassembly.release();
+        }
+        partial.clear();
+    }
+
+    /**
+     * Internal use only
+     * The fragments received of a datagram.
+     */
+    private static class Reassembly {
+        private final ByteBuf[] fragments;
+        private final long started;
+        private int received = 0;
+        private int size = 0;
+
+        private Reassembly(int count, long started) {
+            this.fragments = new ByteBuf[count];
+            this.started = started;
+        }
+
+        private void release() {
+            for (int i = 0; i < fragments.length; i++) {
+                if (fragments[i] != null) {
+                    fragments[i].release();
+                    fragments[i] = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * An encoded message frame written to a UDP channel, with the protocol it is to be delivered with.
+ * The <code>UdpDeliveryHandler</code> uses the protocol to decide how the frame is sent.
+ */
+public class UdpFrame extends DefaultByteBufHolder {
+
+    private final NetworkProtocol protocol;
+    private final int channel;
+
+    /**
+     * @param protocol The protocol the frame is delivered with
+     * @param frame    The encoded message frame
+     */
+    public UdpFrame(NetworkProtocol protocol, ByteBuf frame) {
+        this(protocol, 0, frame);
+    }
+
+    /**
+     * @param protocol The protocol the frame is delivered with
+     * @param channel  The sequence channel of the message
+     * @param frame    The encoded message frame
+     */
+    public UdpFrame(NetworkProtocol protocol, int channel, ByteBuf frame) {
+        super(frame);
+        if (channel < 0) {
+            throw new IllegalArgumentException("Sequence channel must not be negative");
+        }
+        this.protocol = protocol;
+        this.channel = channel;
+    }
+
+    /**
+     * @return The protocol the frame is delivered with
+     */
+    public NetworkProtocol protocol() {
+        return protocol;
+    }
+
+    /**
+     * @return The sequence channel of the message
+     */
+    public int channel() {
+        return channel;
+    }
+
+    @Override
+    public UdpFrame replace(ByteBuf content) {
+        return new UdpFrame(protocol, channel, content);
+    }
+
+    @Override
+    public UdpFrame retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public UdpFrame retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    public UdpFrame touch() {
+        super.touch();
+        return this;
+    }
+
+    @Override
+    public UdpFrame touch(Object hint) {
+        super.touch(hint);
+        return this;
+    }
+}
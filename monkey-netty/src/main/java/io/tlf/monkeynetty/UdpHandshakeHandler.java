@@ -0,0 +1,143 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UdpHandshakeHandler puts the cookie the server issued over TCP in front of the datagrams a client sends,
+ * marked with <code>UdpDeliveryHandler.KIND_HANDSHAKE</code>. The server drops datagrams from addresses without
+ * a UDP session unless they carry a valid cookie, so the session is opened by the first datagram to arrive.
+ * Each datagram is copied into a new buffer behind the cookie, and the first one is kept and resent every
+ * <code>RESEND_INTERVAL</code> milliseconds, since it may be lost like any other datagram.
+ * The handler stays in the pipeline until the first datagram from the server is received,
+ * or <code>complete</code> is called once the server has confirmed the connection over TCP.
+ */
+public class UdpHandshakeHandler extends ChannelDuplexHandler {
+
+    /**
+     * The delay in milliseconds between resending the first datagram until the handshake completes.
+     */
+    public static final long RESEND_INTERVAL = 250;
+
+    private final byte[] cookie;
+    private ChannelHandlerContext ctx;
+    private ByteBuf handshake;
+    private ScheduledFuture<?> resendTask;
+
+    /**
+     * Creates a new handler.
+     *
+     * @param cookie The cookie issued by the server
+     */
+    public UdpHandshakeHandler(byte[] cookie) {
+        this.cookie = cookie;
+    }
+
+    /**
+     * Stop sending the cookie, removing the handler from the pipeline.
+     * May be called from any thread.
+     */
+    public void complete() {
+        ChannelHandlerContext ctx = this.ctx;
+        if (ctx == null) {
+            return;
+        }
+        if (ctx.executor().inEventLoop()) {
+            if (!ctx.isRemoved()) {
+                ctx.pipeline().remove(this);
+            }
+        } else {
+            ctx.executor().execute(this::complete);
+        }
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (resendTask != null) {
+            resendTask.cancel(false);
+            resendTask = null;
+        }
+        if (handshake != null) {
+            handshake.release();
+            handshake = null;
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        //The server only replies once the session is open
+        complete();
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf datagram = (ByteBuf) msg;
+        ByteBuf prefixed;
+        try {
+            prefixed = ctx.alloc().ioBuffer(1 + cookie.length + datagram.readableBytes());
+            prefixed.writeByte(UdpDeliveryHandler.KIND_HANDSHAKE);
+            prefixed.writeBytes(cookie);
+            prefixed.writeBytes(datagram);
+        } finally {
+            datagram.release();
+        }
+        if (handshake == null) {
+            handshake = prefixed.retainedDuplicate();
+            resendTask = ctx.executor().scheduleAtFixedRate(() -> resend(ctx), RESEND_INTERVAL, RESEND_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        ctx.write(prefixed, promise);
+    }
+
+    /**
+     * Internal use only
+     * Resend the first datagram, in case it was lost.
+     *
+     * @param ctx The context of the handler
+     */
+    private void resend(ChannelHandlerContext ctx) {
+        if (handshake == null || ctx.isRemoved()) {
+            return;
+        }
+        //A failed resend is retried on the next interval
+        ctx.writeAndFlush(handshake.retainedDuplicate());
+    }
+}
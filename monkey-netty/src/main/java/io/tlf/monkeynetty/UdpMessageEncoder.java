@@ -0,0 +1,55 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.tlf.monkeynetty.msg.NetworkMessage;
+
+import java.util.List;
+
+/**
+ * Encodes a NetworkMessage into a <code>UdpFrame</code> for the <code>UdpDeliveryHandler</code>.
+ * The frame is encoded with <code>NetworkMessageEncoder</code>, and carries the protocol and sequence channel of the message.
+ */
+public class UdpMessageEncoder extends MessageToMessageEncoder<NetworkMessage> {
+
+    private final NetworkMessageEncoder encoder;
+
+    /**
+     * Creates a new encoder using the registered codecs and classes.
+     *
+     * @param codecs    The codecs to use for messages, messages without a codec will use java serialization
+     * @param registrar The registrar shared with the remote side
+     */
+    public UdpMessageEncoder(MessageCodecRegistry codecs, NetworkRegistrar registrar) {
+        this.encoder = new NetworkMessageEncoder(codecs, registrar);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, NetworkMessage msg, List<Object> out) throws Exception {
+        out.add(new UdpFrame(msg.getProtocol(), msg.getSequenceChannel(), encoder.encodeFrame(ctx.alloc(), msg)));
+    }
+}
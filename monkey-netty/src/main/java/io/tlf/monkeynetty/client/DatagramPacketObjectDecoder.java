@@ -29,8 +29,10 @@ import io.netty.channel.AddressedEnvelope;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.DefaultAddressedEnvelope;
 import io.netty.handler.codec.MessageToMessageDecoder;
-import io.netty.handler.codec.serialization.ClassResolver;
+import io.tlf.monkeynetty.MessageClassResolver;
+import io.tlf.monkeynetty.MessageCodecRegistry;
 import io.tlf.monkeynetty.NetworkMessageDecoder;
+import io.tlf.monkeynetty.NetworkRegistrar;
 
 import java.net.InetSocketAddress;
 import java.util.List;
@@ -39,12 +41,22 @@ public class DatagramPacketObjectDecoder extends MessageToMessageDecoder<Address
 
     private final NetworkMessageDecoder delegateDecoder;
 
-    public DatagramPacketObjectDecoder(ClassResolver resolver) {
+    @SuppressWarnings("deprecation")
+    public DatagramPacketObjectDecoder(io.netty.handler.codec.serialization.ClassResolver resolver) {
         this(resolver, Integer.MAX_VALUE);
     }
 
-    public DatagramPacketObjectDecoder(ClassResolver resolver, int maxObjectSize) {
-        delegateDecoder = new NetworkMessageDecoder(maxObjectSize, resolver);
+    @SuppressWarnings("deprecation")
+    public DatagramPacketObjectDecoder(io.netty.handler.codec.serialization.ClassResolver resolver, int maxObjectSize) {
+        this(MessageClassResolver.of(resolver), maxObjectSize, new MessageCodecRegistry());
+    }
+
+    public DatagramPacketObjectDecoder(MessageClassResolver resolver, int maxObjectSize, MessageCodecRegistry codecs) {
+        this(resolver, maxObjectSize, codecs, new NetworkRegistrar());
+    }
+
+    public DatagramPacketObjectDecoder(MessageClassResolver resolver, int maxObjectSize, MessageCodecRegistry codecs, NetworkRegistrar registrar) {
+        delegateDecoder = new NetworkMessageDecoder(maxObjectSize, resolver, codecs, registrar);
     }
 
     @Override
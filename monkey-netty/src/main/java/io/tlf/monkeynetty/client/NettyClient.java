@@ -33,9 +33,6 @@ import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.DatagramChannelConfig;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.SocketChannelConfig;
-import io.netty.channel.socket.nio.NioDatagramChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.serialization.ClassResolvers;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
@@ -43,17 +40,20 @@ import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
-import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.tlf.monkeynetty.*;
+import io.tlf.monkeynetty.msg.ClassRegistryMessage;
 import io.tlf.monkeynetty.msg.ConnectionEstablishedMessage;
 import io.tlf.monkeynetty.msg.NetworkMessage;
-import io.tlf.monkeynetty.msg.PingMessage;
 import io.tlf.monkeynetty.msg.UdpConHashMessage;
 
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -83,6 +83,18 @@ public class NettyClient extends BaseAppState implements NetworkClient {
     protected int connectionTimeout = 10000;
     private MessageCacheMode cacheMode = MessageCacheMode.TCP_ENABLED;
     private LogLevel logLevel;
+    private volatile DispatchMode dispatchMode = DispatchMode.NETWORK_THREAD;
+    private volatile MessageQueue messageQueue = new MessageQueue();
+    private volatile boolean udpCoalescing = false;
+    private int datagramSize = UdpCoalescingHandler.DEFAULT_DATAGRAM_SIZE;
+    private Transport transport;
+    private boolean tcpQuickAck = false;
+    private int busyPoll = 0;
+    private TransportOptions transportOptions = new TransportOptions();
+    private OutboundLimits outboundLimits = new OutboundLimits();
+    private final AtomicBoolean tcpSlowConsumer = new AtomicBoolean(false);
+    private final AtomicBoolean udpSlowConsumer = new AtomicBoolean(false);
+    private final AtomicLong outboundDroppedCount = new AtomicLong();
 
     //Netty
     private EventLoopGroup tcpGroup = new NioEventLoopGroup();
@@ -95,10 +107,13 @@ public class NettyClient extends BaseAppState implements NetworkClient {
     private DatagramChannel udpChannel;
     private SslContext sslContext;
 
-    private final Set<MessageListener> handlers = ConcurrentHashMap.newKeySet();
+    private final MessageDispatcher handlers = new MessageDispatcher();
     private final Set<ConnectionListener> listeners = ConcurrentHashMap.newKeySet();
     private final ConcurrentLinkedQueue<NetworkMessage> messageCache = new ConcurrentLinkedQueue<>();
     private final Map<String, Object> atts = new ConcurrentHashMap<>();
+    private final MessageCodecRegistry codecs = new MessageCodecRegistry();
+    private final NetworkRegistrar registrar = new NetworkRegistrar();
+    private final MessageClassResolver classResolver = MessageClassResolver.defaultResolver();
 
     /**
      * Creates a new client configured to connect to the server.
@@ -160,6 +175,7 @@ public class NettyClient extends BaseAppState implements NetworkClient {
     @Override
     public void onDisable() {
         disconnect();
+        handlers.shutdown();
     }
 
     /**
@@ -213,6 +229,223 @@ public class NettyClient extends BaseAppState implements NetworkClient {
         return cacheMode;
     }
 
+    /**
+     * Sets the thread message listeners are called on. By default the mode is <code>DispatchMode.NETWORK_THREAD</code>.
+     * When set to <code>DispatchMode.UPDATE_THREAD</code> received messages are queued in the message queue
+     * and delivered while the client is updated.
+     *
+     * @param dispatchMode The desired dispatch mode
+     */
+    public void setDispatchMode(DispatchMode dispatchMode) {
+        this.dispatchMode = dispatchMode;
+    }
+
+    /**
+     * @return The current dispatch mode
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    /**
+     * Sets the queue received messages are held in when using <code>DispatchMode.UPDATE_THREAD</code>.
+     * This should be set before the client is enabled.
+     *
+     * @param messageQueue The message queue
+     */
+    public void setMessageQueue(MessageQueue messageQueue) {
+        if (messageQueue == null) {
+            throw new NullPointerException("Message queue must not be null");
+        }
+        this.messageQueue = messageQueue;
+    }
+
+    /**
+     * The message queue can be used to configure the frame budget and overflow policies,
+     * and to monitor the queue depth.
+     *
+     * @return The queue received messages are held in when using <code>DispatchMode.UPDATE_THREAD</code>
+     */
+    public MessageQueue getMessageQueue() {
+        return messageQueue;
+    }
+
+    /**
+     * Sets if UDP messages are coalesced. When enabled, UDP messages are not sent immediately, all UDP messages
+     * sent during a frame are packed into as few datagrams as possible and sent when the client is updated,
+     * or sooner if they fill a datagram. By default coalescing is disabled.
+     *
+     * @param udpCoalescing If UDP messages should be coalesced
+     */
+    public void setUdpCoalescing(boolean udpCoalescing) {
+        this.udpCoalescing = udpCoalescing;
+    }
+
+    /**
+     * @return If UDP messages are coalesced
+     */
+    public boolean isUdpCoalescing() {
+        return udpCoalescing;
+    }
+
+    /**
+     * Sets the socket options of the TCP and UDP channels, such as <code>TCP_NODELAY</code> and buffer sizes.
+     * See <code>TransportOptions</code> for presets. By default only <code>TCP_NODELAY</code> is set.
+     * This should be set before the client is enabled.
+     *
+     * @param transportOptions The socket options
+     */
+    public void setTransportOptions(TransportOptions transportOptions) {
+        if (transportOptions == null) {
+            throw new NullPointerException("Transport options must not be null");
+        }
+        this.transportOptions = transportOptions;
+    }
+
+    /**
+     * @return The socket options of the TCP and UDP channels
+     */
+    public TransportOptions getTransportOptions() {
+        return transportOptions;
+    }
+
+    /**
+     * Sets what happens to messages sent to the server when it is not reading them fast enough.
+     * See <code>OutboundLimits</code>. When the limits close the connection, the client reconnects.
+     *
+     * @param outboundLimits The outbound limits
+     */
+    public void setOutboundLimits(OutboundLimits outboundLimits) {
+        if (outboundLimits == null) {
+            throw new NullPointerException("Outbound limits must not be null");
+        }
+        this.outboundLimits = outboundLimits;
+    }
+
+    /**
+     * @return What happens to messages sent to the server when it is not reading them fast enough
+     */
+    public OutboundLimits getOutboundLimits() {
+        return outboundLimits;
+    }
+
+    /**
+     * @return The number of messages to the server dropped by the outbound limits
+     */
+    public long getOutboundDroppedCount() {
+        return outboundDroppedCount.get();
+    }
+
+    /**
+     * Sets the transport used for the TCP and UDP sockets.
+     * By default the first available of io_uring, epoll and NIO is used.
+     * This should be set before the client is enabled.
+     *
+     * @param transport The transport, or null to choose the best available
+     */
+    public void setTransport(Transport transport) {
+        if (transport != null && !transport.isAvailable()) {
+            throw new IllegalArgumentException(transport + " transport is not available");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * @return The transport used for the TCP and UDP sockets
+     */
+    public Transport getTransport() {
+        if (transport == null) {
+            transport = Transport.best();
+        }
+        return transport;
+    }
+
+    /**
+     * Sets if TCP acknowledgements are sent immediately with <code>TCP_QUICKACK</code>, instead of being delayed.
+     * This only applies with the epoll or io_uring transport. By default this is disabled.
+     * This should be set before the client is enabled.
+     *
+     * @param tcpQuickAck If TCP acknowledgements should be sent immediately
+     */
+    public void setTcpQuickAck(boolean tcpQuickAck) {
+        this.tcpQuickAck = tcpQuickAck;
+    }
+
+    /**
+     * @return If TCP acknowledgements are sent immediately with <code>TCP_QUICKACK</code>
+     */
+    public boolean isTcpQuickAck() {
+        return tcpQuickAck;
+    }
+
+    /**
+     * Sets the time in microseconds to busy poll the network device with <code>SO_BUSY_POLL</code> when reading
+     * a socket with no data, trading CPU for lower latency. This only applies with the epoll or io_uring transport.
+     * By default this is 0, disabling busy polling.
+     * This should be set before the client is enabled.
+     *
+     * @param busyPoll The busy poll time in microseconds
+     */
+    public void setBusyPoll(int busyPoll) {
+        if (busyPoll < 0) {
+            throw new IllegalArgumentException("Busy poll time must not be negative");
+        }
+        this.busyPoll = busyPoll;
+    }
+
+    /**
+     * @return The time in microseconds to busy poll the network device when reading a socket with no data
+     */
+    public int getBusyPoll() {
+        return busyPoll;
+    }
+
+    /**
+     * Sets the largest UDP datagram the client will build when coalescing messages, in bytes.
+     * Larger datagrams are split into fragments of this size.
+     * The server and its clients must use the same datagram size to reassemble each other's fragments.
+     * By default this is <code>UdpCoalescingHandler.DEFAULT_DATAGRAM_SIZE</code>.
+     * This should be set before the client is enabled.
+     *
+     * @param datagramSize The datagram size in bytes
+     */
+    public void setDatagramSize(int datagramSize) {
+        if (datagramSize < UdpCoalescingHandler.MIN_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Datagram size must be at least " + UdpCoalescingHandler.MIN_DATAGRAM_SIZE + " bytes");
+        }
+        this.datagramSize = datagramSize;
+    }
+
+    /**
+     * @return The largest UDP datagram the client will build when coalescing messages, in bytes
+     */
+    public int getDatagramSize() {
+        return datagramSize;
+    }
+
+    /**
+     * Register a codec used to transport a message class, replacing java serialization for that class.
+     * The same codec must be registered with the server.
+     * Codecs should be registered before the client is enabled.
+     *
+     * @param type  The message class
+     * @param codec The codec used to transport the message class
+     * @param <T>   The message type
+     */
+    public <T extends NetworkMessage> void registerCodec(Class<T> type, MessageCodec<? super T> codec) {
+        codecs.register(type, codec);
+    }
+
+    /**
+     * Unregister the codec for a message class.
+     * The message class will be transported using java serialization.
+     *
+     * @param type The message class
+     */
+    public void unregisterCodec(Class<? extends NetworkMessage> type) {
+        codecs.unregister(type);
+    }
+
     /**
      * Internal use only
      * Setup the TCP netty.io pipeline.
@@ -238,10 +471,17 @@ public class NettyClient extends BaseAppState implements NetworkClient {
             }
         }
         //Setup TCP
-        tcpGroup = new NioEventLoopGroup();
+        tcpGroup = getTransport().newEventLoopGroup(0, new DefaultThreadFactory("monkey-netty-tcp"));
         tcpClientBootstrap = new Bootstrap();
         tcpClientBootstrap.group(tcpGroup);
-        tcpClientBootstrap.channel(NioSocketChannel.class);
+        tcpClientBootstrap.channel(getTransport().socketChannel());
+        transportOptions.applyTcp(tcpClientBootstrap);
+        if (tcpQuickAck && getTransport().tcpQuickAck() != null) {
+            tcpClientBootstrap.option(getTransport().tcpQuickAck(), true);
+        }
+        if (busyPoll > 0 && getTransport().busyPoll() != null) {
+            tcpClientBootstrap.option(getTransport().busyPoll(), busyPoll);
+        }
         tcpClientBootstrap.remoteAddress(new InetSocketAddress(server, port));
         tcpClientBootstrap.handler(new ChannelInitializer<SocketChannel>() {
             protected void initChannel(SocketChannel socketChannel) {
@@ -254,24 +494,28 @@ public class NettyClient extends BaseAppState implements NetworkClient {
                 if (ssl) {
                     p.addLast(sslContext.newHandler(socketChannel.alloc(), server, port));
                 }
+                //Keep alive, before the decoder so pings count as reads
+                p.addLast(new HeartbeatHandler(30, 10, TimeUnit.SECONDS));
                 //Set log level
                 if (logLevel != null) {
                     p.addLast(new LoggingHandler(logLevel));
                 }
                 //Setup pipeline
                 p.addLast(
-                        new NetworkMessageEncoder(),
-                        new NetworkMessageDecoder(Integer.MAX_VALUE, ClassResolvers.cacheDisabled(null)),
+                        new NetworkMessageEncoder(codecs, registrar),
+                        new NetworkMessageDecoder(Integer.MAX_VALUE, classResolver, codecs, registrar),
                         new ChannelInboundHandlerAdapter() {
                             @Override
                             public void channelRead(ChannelHandlerContext ctx, Object msg) {
-                                if (!udpHandshakeComplete && msg instanceof UdpConHashMessage) {
+                                if (msg instanceof ClassRegistryMessage) {
+                                    registrar.load(((ClassRegistryMessage) msg).getClassNames(), classResolver);
+                                } else if (!udpHandshakeComplete && msg instanceof UdpConHashMessage) {
                                     String hash = ((UdpConHashMessage) msg).getUdpHash();
                                     setupUdp(hash);
                                 } else if (pendingEstablish && msg instanceof ConnectionEstablishedMessage) {
                                     completeConnection();
                                 } else if (msg instanceof NetworkMessage) {
-                                    receive((NetworkMessage) msg);
+                                    dispatch((NetworkMessage) msg);
                                 } else {
                                     LOGGER.log(Level.SEVERE, "Received message that was not a NetworkMessage object");
                                 }
@@ -289,17 +533,11 @@ public class NettyClient extends BaseAppState implements NetworkClient {
                                 ctx.close();
                             }
                         },
-                        new IdleStateHandler(30, 10, 0),
                         new ChannelDuplexHandler() {
                             @Override
                             public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
-                                if (evt instanceof IdleStateEvent) {
-                                    IdleStateEvent e = (IdleStateEvent) evt;
-                                    if (e.state() == IdleState.READER_IDLE) {
-                                        handleInactiveConnection();
-                                    } else if (e.state() == IdleState.WRITER_IDLE) {
-                                        send(new PingMessage());
-                                    }
+                                if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+                                    handleInactiveConnection();
                                 }
                             }
 
@@ -330,10 +568,14 @@ public class NettyClient extends BaseAppState implements NetworkClient {
      */
     private void setupUdp(String hash) {
         LOGGER.fine("Setting up udp");
-        udpGroup = new NioEventLoopGroup();
+        udpGroup = getTransport().newEventLoopGroup(0, new DefaultThreadFactory("monkey-netty-udp"));
         udpClientBootstrap = new Bootstrap();
         udpClientBootstrap.group(udpGroup);
-        udpClientBootstrap.channel(NioDatagramChannel.class);
+        udpClientBootstrap.channel(getTransport().datagramChannel());
+        transportOptions.applyUdp(udpClientBootstrap);
+        if (busyPoll > 0 && getTransport().busyPoll() != null) {
+            udpClientBootstrap.option(getTransport().busyPoll(), busyPoll);
+        }
         udpClientBootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(65535));
         udpClientBootstrap.remoteAddress(new InetSocketAddress(server, port));
         udpClientBootstrap.handler(new ChannelInitializer<DatagramChannel>() {
@@ -348,8 +590,12 @@ public class NettyClient extends BaseAppState implements NetworkClient {
                     p.addLast(new LoggingHandler(logLevel));
                 }
                 p.addLast(
-                        new NetworkMessageEncoder(),
-                        new DatagramPacketObjectDecoder(ClassResolvers.cacheDisabled(null), 65507),
+                        new UdpHandshakeHandler(Base64.getDecoder().decode(hash)),
+                        new UdpFragmentationHandler(datagramSize, 65507),
+                        new UdpCoalescingHandler(datagramSize),
+                        new UdpDeliveryHandler(),
+                        new UdpMessageEncoder(codecs, registrar),
+                        new DatagramPacketObjectDecoder(classResolver, 65507, codecs, registrar),
                         new ChannelInboundHandlerAdapter() {
                             @Override
                             public void channelRead(ChannelHandlerContext ctx, Object netObj) {
@@ -358,7 +604,7 @@ public class NettyClient extends BaseAppState implements NetworkClient {
                                     AddressedEnvelope<?, ?> envelope = (AddressedEnvelope<?, ?>) netObj;
                                     Object msg = envelope.content();
                                     if (msg instanceof NetworkMessage) {
-                                        receive((NetworkMessage) msg);
+                                        dispatch((NetworkMessage) msg);
                                     } else {
                                         LOGGER.log(Level.SEVERE, "Received message that was not a NetworkMessage object");
                                     }
@@ -398,6 +644,11 @@ public class NettyClient extends BaseAppState implements NetworkClient {
      */
     protected void completeConnection() {
         pendingEstablish = false;
+        //The server has the udp session, so the cookie no longer needs to be sent
+        UdpHandshakeHandler handshake = udpChannel == null ? null : udpChannel.pipeline().get(UdpHandshakeHandler.class);
+        if (handshake != null) {
+            handshake.complete();
+        }
         LOGGER.log(Level.FINEST, "Connection established");
         //Notify that we have completed the connection process
         for (ConnectionListener listener : listeners) {
@@ -485,6 +736,28 @@ public class NettyClient extends BaseAppState implements NetworkClient {
             }
             LOGGER.finest("Done sending cached messages");
         }
+        if (udpCoalescing && udpChannel != null) {
+            udpChannel.flush();
+        }
+        messageQueue.drain((client, message) -> receive(message));
+    }
+
+    /**
+     * Internal use only
+     * Deliver an incoming message from the server, or queue it when using <code>DispatchMode.UPDATE_THREAD</code>.
+     * The TCP channel will be closed if the message queue rejects the message, causing the client to reconnect.
+     *
+     * @param message The message received
+     */
+    private void dispatch(NetworkMessage message) {
+        if (dispatchMode == DispatchMode.UPDATE_THREAD) {
+            if (!messageQueue.offer(this, message)) {
+                LOGGER.log(Level.WARNING, "Message queue full, closing connection to server");
+                tcpChannel.close();
+            }
+        } else {
+            receive(message);
+        }
     }
 
     @Override
@@ -516,17 +789,21 @@ public class NettyClient extends BaseAppState implements NetworkClient {
                 messageCache.add(message);
             } else if (cacheMode == MessageCacheMode.TCP_ENABLED && message.getProtocol() == NetworkProtocol.TCP) {
                 messageCache.add(message);
-            } else if (cacheMode == MessageCacheMode.UDP_ENABLED && message.getProtocol() == NetworkProtocol.UDP) {
+            } else if (cacheMode == MessageCacheMode.UDP_ENABLED && message.getProtocol().isUdp()) {
                 messageCache.add(message);
             }
             return;
         }
+        Channel channel = message.getProtocol() == NetworkProtocol.TCP ? tcpChannel : udpChannel;
+        if (channel != null && !checkOutbound(channel, message)) {
+            return;
+        }
         try {
             if (message.getProtocol() == NetworkProtocol.TCP) {
                 ChannelFuture future = tcpChannel.writeAndFlush(message);
                 future.addListener(FIRE_EXCEPTION_ON_FAILURE);
             } else {
-                ChannelFuture future = udpChannel.writeAndFlush(message);
+                ChannelFuture future = udpCoalescing ? udpChannel.write(message) : udpChannel.writeAndFlush(message);
                 future.addListener(FIRE_EXCEPTION_ON_FAILURE);
             }
         } catch (Exception ex) {
@@ -534,9 +811,46 @@ public class NettyClient extends BaseAppState implements NetworkClient {
         }
     }
 
+    /**
+     * Internal use only
+     * Apply the outbound limits to a message, notifying listeners when the server stops keeping up.
+     *
+     * @param channel The channel the message is sent on
+     * @param message The message being sent
+     * @return If the message should be written
+     */
+    private boolean checkOutbound(Channel channel, NetworkMessage message) {
+        AtomicBoolean slowConsumer = message.getProtocol() == NetworkProtocol.TCP ? tcpSlowConsumer : udpSlowConsumer;
+        if (channel.isWritable()) {
+            slowConsumer.set(false);
+        } else if (slowConsumer.compareAndSet(false, true)) {
+            LOGGER.log(Level.FINE, "Server is not keeping up with {0} messages", message.getProtocol());
+            try {
+                for (ConnectionListener listener : listeners) {
+                    listener.onSlowConsumer(this, message.getProtocol());
+                }
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Exception thrown running connection listeners", ex);
+            }
+        }
+        switch (outboundLimits.check(channel, message.getProtocol())) {
+            case DROP:
+                outboundDroppedCount.incrementAndGet();
+                return false;
+            case DISCONNECT:
+                outboundDroppedCount.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Closing connection, outbound limit exceeded sending {0}", message.getName());
+                tcpChannel.close();
+                return false;
+            default:
+                return true;
+        }
+    }
+
     @Override
     public void disconnect() {
         disconnecting = true;
+        messageQueue.clear();
         try {
             for (ConnectionListener listener : listeners) {
                 listener.onDisconnect(this);
@@ -575,34 +889,29 @@ public class NettyClient extends BaseAppState implements NetworkClient {
 
     @Override
     public NetworkProtocol[] getProtocol() {
-        return new NetworkProtocol[]{NetworkProtocol.TCP, NetworkProtocol.UDP};
+        return new NetworkProtocol[]{NetworkProtocol.TCP, NetworkProtocol.UDP, NetworkProtocol.UDP_RELIABLE, NetworkProtocol.UDP_SEQUENCED};
     }
 
     @Override
     public void receive(NetworkMessage message) {
         LOGGER.finest("Got message: " + message.getName());
         //Handlers
-        try {
-            for (MessageListener handler : handlers) {
-                for (Class<? extends NetworkMessage> a : handler.getSupportedMessages()) {
-                    if (a.isInstance(message)) {
-                        handler.onMessage(message, null, this);
-                    }
-                }
-            }
-        } catch (Exception ex) {
-            LOGGER.log(Level.SEVERE, "An error occurred handling message " + message.getName(), ex);
-        }
+        handlers.dispatch(message, null, this);
     }
 
     @Override
     public void registerListener(MessageListener handler) {
-        handlers.add(handler);
+        handlers.register(handler);
+    }
+
+    @Override
+    public void registerListener(MessageListener handler, DispatchPolicy policy) {
+        handlers.register(handler, policy);
     }
 
     @Override
     public void unregisterListener(MessageListener handler) {
-        handlers.remove(handler);
+        handlers.unregister(handler);
     }
 
     @Override
@@ -0,0 +1,65 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.msg;
+
+import io.tlf.monkeynetty.NetworkProtocol;
+
+/**
+ * Internal Use Only
+ * This message is sent from the server to the client during the TCP handshake,
+ * it contains the classes registered with the server so both sides use the same class UIDs.
+ */
+public class ClassRegistryMessage implements NetworkMessage {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] classNames;
+
+    /**
+     * Internal Use Only
+     *
+     * @param classNames The names of the classes registered with the server, in UID order
+     */
+    public ClassRegistryMessage(String[] classNames) {
+        this.classNames = classNames;
+    }
+
+    @Override
+    public String getName() {
+        return "class-registry-message";
+    }
+
+    @Override
+    public NetworkProtocol getProtocol() {
+        return NetworkProtocol.TCP;
+    }
+
+    /**
+     * @return The names of the classes registered with the server, in UID order
+     */
+    public String[] getClassNames() {
+        return classNames;
+    }
+}
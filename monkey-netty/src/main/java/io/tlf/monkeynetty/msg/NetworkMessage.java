@@ -47,4 +47,17 @@ public interface NetworkMessage extends Serializable {
      * @return The communication protocol for which monkey-netty should use when transporting this message.
      */
     public NetworkProtocol getProtocol();
+
+    /**
+     * Messages sent with <code>NetworkProtocol.UDP_SEQUENCED</code> are sequenced per channel, a message is discarded
+     * by the receiver if a newer message on the same channel has already been received.
+     * Independent streams of state, such as the positions of different entities, should use different channels.
+     * The receiver tracks at most <code>UdpDeliveryHandler.MAX_SEQUENCE_CHANNELS</code> channels per connection,
+     * messages on further channels are discarded.
+     *
+     * @return The sequence channel of the message, a non-negative number, by default 0
+     */
+    public default int getSequenceChannel() {
+        return 0;
+    }
 }
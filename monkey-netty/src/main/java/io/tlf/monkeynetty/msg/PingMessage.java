@@ -30,7 +30,9 @@ import io.tlf.monkeynetty.NetworkProtocol;
  * @author Trevor Flynn trevorflynn@liquidcrystalstudios.com
  * <p>
  * Internal Use Onlu
- * This message is sent periodically between the server and client to ensure communication is still active.
+ * This message was sent periodically between the server and client to ensure communication is still active.
+ * Keepalives are now ping control frames sent by <code>HeartbeatHandler</code>, this message remains registered
+ * so the UIDs of the registered classes do not change.
  */
 public class PingMessage implements NetworkMessage {
     @Override
@@ -0,0 +1,145 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.MathUtil;
+import io.tlf.monkeynetty.OverflowPolicy;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Internal use only
+ * DatagramRingBuffer holds the datagrams received for a UDP session until its pipeline reads them.
+ * It has a fixed capacity, rounded up to a power of two, and has a single producer, the thread receiving from the
+ * socket, and a single consumer, the event loop of the session.
+ * <p>
+ * When full, <code>OverflowPolicy.DROP_OLDEST</code> overwrites the oldest datagram, and
+ * <code>OverflowPolicy.DROP_NEWEST</code> discards the received datagram. Each datagram is owned by whichever
+ * thread takes it out of its slot, so every datagram is either read or released exactly once. While the producer
+ * is overwriting datagrams the consumer may read some out of order, which UDP allows for anyway.
+ */
+final class DatagramRingBuffer {
+
+    private static final AtomicLongFieldUpdater<DatagramRingBuffer> HEAD = AtomicLongFieldUpdater.newUpdater(DatagramRingBuffer.class, "head");
+    private static final AtomicLongFieldUpdater<DatagramRingBuffer> TAIL = AtomicLongFieldUpdater.newUpdater(DatagramRingBuffer.class, "tail");
+    private static final AtomicLongFieldUpdater<DatagramRingBuffer> DROPPED = AtomicLongFieldUpdater.newUpdater(DatagramRingBuffer.class, "dropped");
+
+    private final AtomicReferenceArray<ByteBuf> slots;
+    private final int capacity;
+    private final int mask;
+    private final OverflowPolicy policy;
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile long dropped = 0;
+
+    /**
+     * @param capacity The number of datagrams held, rounded up to a power of two
+     * @param policy   <code>OverflowPolicy.DROP_OLDEST</code> or <code>OverflowPolicy.DROP_NEWEST</code>
+     */
+    DatagramRingBuffer(int capacity, OverflowPolicy policy) {
+        if (policy != OverflowPolicy.DROP_OLDEST && policy != OverflowPolicy.DROP_NEWEST) {
+            throw new IllegalArgumentException("UDP session buffers only support DROP_OLDEST and DROP_NEWEST");
+        }
+        this.capacity = MathUtil.safeFindNextPositivePowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+        this.policy = policy;
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    /**
+     * Internal use only
+     * Add a received datagram, this should only be called by the producer.
+     * Ownership of the datagram passes to the buffer, it is released if it is dropped.
+     *
+     * @param datagram The received datagram
+     */
+    void offer(ByteBuf datagram) {
+        long t = tail;
+        if (policy == OverflowPolicy.DROP_NEWEST && t - head >= capacity) {
+            datagram.release();
+            DROPPED.incrementAndGet(this);
+            return;
+        }
+        //With DROP_OLDEST the slot may still hold the datagram from one lap ago, which is the oldest held
+        ByteBuf oldest = slots.getAndSet((int) t & mask, datagram);
+        if (oldest != null) {
+            oldest.release();
+            DROPPED.incrementAndGet(this);
+        }
+        TAIL.lazySet(this, t + 1);
+    }
+
+    /**
+     * Internal use only
+     * Take the oldest datagram, this should only be called by the consumer.
+     *
+     * @return The datagram, or null if the buffer is empty
+     */
+    ByteBuf poll() {
+        long h = head;
+        long t = tail;
+        while (h < t) {
+            if (t - h > capacity) {
+                //The producer has lapped the consumer, the overwritten datagrams were already released
+                h = t - capacity;
+            }
+            ByteBuf datagram = slots.getAndSet((int) h & mask, null);
+            h++;
+            if (datagram != null) {
+                HEAD.lazySet(this, h);
+                return datagram;
+            }
+        }
+        HEAD.lazySet(this, h);
+        return null;
+    }
+
+    /**
+     * Internal use only
+     * Release all held datagrams, this should only be called by the consumer.
+     */
+    void clear() {
+        ByteBuf datagram;
+        while ((datagram = poll()) != null) {
+            datagram.release();
+        }
+    }
+
+    /**
+     * @return The number of datagrams held
+     */
+    int size() {
+        return (int) Math.min(capacity, Math.max(0, tail - head));
+    }
+
+    /**
+     * @return The number of datagrams dropped because the buffer was full
+     */
+    long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.server;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.NettyRuntime;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.tlf.monkeynetty.Transport;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * EventLoopConfig sizes and names the Netty.IO threads used by the server.
+ * <p>
+ * The boss threads accept TCP connections and create UDP sessions, the worker threads handle TCP connections,
+ * and the UDP threads, one per UDP socket set by <code>NettyServer.setUdpSocketCount</code>, handle UDP sessions.
+ * Threads are only started when they are first needed. By default there is one boss thread and one worker thread
+ * per core, so a server uses about one thread per core plus one for each UDP socket.
+ * <p>
+ * The boss and worker groups may be shared with other servers by setting them, in which case the thread counts
+ * for them are not used, and the server does not shut them down when it stops.
+ * <p>
+ * The TCP transport is chosen with <code>Transport.best()</code> unless set.
+ * <p>
+ * New TCP connections are assigned to the least loaded worker thread, see <code>LeastLoadedChooserFactory</code>,
+ * unless disabled or the worker group is shared.
+ */
+public class EventLoopConfig {
+
+    private int bossThreads = 1;
+    private int workerThreads = NettyRuntime.availableProcessors();
+    private String threadName = "monkey-netty";
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Transport transport;
+    private boolean leastLoadedWorkers = true;
+
+    /**
+     * Sets the number of threads accepting TCP connections and creating UDP sessions. By default this is 1.
+     *
+     * @param bossThreads The number of boss threads
+     */
+    public void setBossThreads(int bossThreads) {
+        if (bossThreads < 1) {
+            throw new IllegalArgumentException("Must have at least 1 boss thread");
+        }
+        this.bossThreads = bossThreads;
+    }
+
+    /**
+     * @return The number of threads accepting TCP connections and creating UDP sessions
+     */
+    public int getBossThreads() {
+        return bossThreads;
+    }
+
+    /**
+     * Sets the number of threads handling TCP connections. By default this is the number of cores.
+     *
+     * @param workerThreads The number of worker threads
+     */
+    public void setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("Must have at least 1 worker thread");
+        }
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * @return The number of threads handling TCP connections
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Sets the name threads are given, followed by their role and number, for example <code>monkey-netty-worker-1-1</code>.
+     * By default this is <code>monkey-netty</code>.
+     *
+     * @param threadName The thread name
+     */
+    public void setThreadName(String threadName) {
+        if (threadName == null) {
+            throw new NullPointerException("Thread name must not be null");
+        }
+        this.threadName = threadName;
+    }
+
+    /**
+     * @return The name threads are given
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * Sets a boss group to share, instead of creating one for the server.
+     * The group must be compatible with the server socket channel of the transport.
+     *
+     * @param bossGroup The shared boss group, or null to create one
+     */
+    public void setBossGroup(EventLoopGroup bossGroup) {
+        this.bossGroup = bossGroup;
+    }
+
+    /**
+     * @return The shared boss group, or null if the server creates one
+     */
+    public EventLoopGroup getBossGroup() {
+        return bossGroup;
+    }
+
+    /**
+     * Sets a worker group to share, instead of creating one for the server.
+     * The group must be compatible with the socket channel of the transport.
+     *
+     * @param workerGroup The shared worker group, or null to create one
+     */
+    public void setWorkerGroup(EventLoopGroup workerGroup) {
+        this.workerGroup = workerGroup;
+    }
+
+    /**
+     * @return The shared worker group, or null if the server creates one
+     */
+    public EventLoopGroup getWorkerGroup() {
+        return workerGroup;
+    }
+
+    /**
+     * Sets the transport used for TCP sockets.
+     * By default the first available of io_uring, epoll and NIO is used.
+     *
+     * @param transport The transport, or null to choose the best available
+     */
+    public void setTransport(Transport transport) {
+        if (transport != null && !transport.isAvailable()) {
+            throw new IllegalArgumentException(transport + " transport is not available");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * @return The transport used for TCP sockets
+     */
+    public Transport getTransport() {
+        if (transport == null) {
+            transport = Transport.best();
+        }
+        return transport;
+    }
+
+    /**
+     * Sets if new TCP connections are assigned to the least loaded worker thread, instead of each worker thread
+     * in turn. By default this is true.
+     * This has no effect for the io_uring transport or a shared worker group.
+     *
+     * @param leastLoadedWorkers If connections are assigned to the least loaded worker thread
+     */
+    public void setLeastLoadedWorkers(boolean leastLoadedWorkers) {
+        this.leastLoadedWorkers = leastLoadedWorkers;
+    }
+
+    /**
+     * @return If connections are assigned to the least loaded worker thread
+     */
+    public boolean isLeastLoadedWorkers() {
+        return leastLoadedWorkers;
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param role The role of the threads
+     * @return A factory for threads named for the role
+     */
+    public ThreadFactory newThreadFactory(String role) {
+        return new DefaultThreadFactory(threadName + "-" + role);
+    }
+}
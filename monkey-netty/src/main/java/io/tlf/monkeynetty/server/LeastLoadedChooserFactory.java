@@ -0,0 +1,181 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.server;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorChooserFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LeastLoadedChooserFactory assigns new connections to the least loaded event loop of a group,
+ * instead of the next one in turn, so a few busy clients assigned to the same loop do not saturate it
+ * while other loops are idle.
+ * <p>
+ * The load of a loop is the number of connections assigned to it, plus one for every
+ * <code>LATENCY_PER_CONNECTION</code> of task queue latency, which is how long a task waits to run on the loop.
+ * The latency is sampled once every <code>PROBE_INTERVAL</code> on each loop with connections, and smoothed over
+ * recent samples.
+ */
+public class LeastLoadedChooserFactory implements EventExecutorChooserFactory {
+
+    /**
+     * The task queue latency in nanoseconds that counts as much as one connection
+     */
+    public static final long LATENCY_PER_CONNECTION = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * The time in milliseconds between task queue latency samples
+     */
+    public static final long PROBE_INTERVAL = 1000;
+
+    private volatile List<Load> loads = Collections.emptyList();
+    private volatile Map<EventExecutor, Load> loadsByExecutor = Collections.emptyMap();
+
+    @Override
+    public EventExecutorChooser newChooser(EventExecutor[] executors) {
+        Load[] chooserLoads = new Load[executors.length];
+        Map<EventExecutor, Load> byExecutor = new IdentityHashMap<>();
+        for (int i = 0; i < executors.length; i++) {
+            chooserLoads[i] = new Load(executors[i]);
+            byExecutor.put(executors[i], chooserLoads[i]);
+        }
+        List<Load> list = new ArrayList<>();
+        Collections.addAll(list, chooserLoads);
+        loads = Collections.unmodifiableList(list);
+        loadsByExecutor = byExecutor;
+        return () -> {
+            Load least = chooserLoads[0];
+            long leastScore = least.score();
+            for (int i = 1; i < chooserLoads.length; i++) {
+                long score = chooserLoads[i].score();
+                if (score < leastScore) {
+                    least = chooserLoads[i];
+                    leastScore = score;
+                }
+            }
+            //Count the choice until the connection is registered, so a burst of connections is spread out
+            least.pending.incrementAndGet();
+            return least.executor;
+        };
+    }
+
+    /**
+     * Internal use only
+     * Count a connection registered on a loop of the group, until it is closed.
+     *
+     * @param channel The connection
+     */
+    public void register(Channel channel) {
+        Load load = loadsByExecutor.get(channel.eventLoop());
+        if (load == null) {
+            return; //Not a loop of this group
+        }
+        load.pending.updateAndGet(pending -> Math.max(0, pending - 1));
+        load.connections.incrementAndGet();
+        channel.closeFuture().addListener(future -> load.connections.decrementAndGet());
+        load.startProbe();
+    }
+
+    /**
+     * @return The load of each event loop in the group
+     */
+    public List<Load> getLoads() {
+        return loads;
+    }
+
+    /**
+     * The load of an event loop.
+     */
+    public static class Load {
+        private final EventExecutor executor;
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean probing = new AtomicBoolean();
+        private volatile long latency = 0;
+
+        private Load(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * @return The event loop
+         */
+        public EventExecutor getExecutor() {
+            return executor;
+        }
+
+        /**
+         * @return The number of connections assigned to the event loop
+         */
+        public int getConnections() {
+            return connections.get();
+        }
+
+        /**
+         * @param unit The unit to return the latency in
+         * @return The smoothed time a task waits to run on the event loop
+         */
+        public long getQueueLatency(TimeUnit unit) {
+            return unit.convert(latency, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Internal use only
+         *
+         * @return The load used to compare event loops
+         */
+        private long score() {
+            return connections.get() + pending.get() + latency / LATENCY_PER_CONNECTION;
+        }
+
+        /**
+         * Internal use only
+         * Start sampling the task queue latency once the event loop has a connection.
+         */
+        private void startProbe() {
+            if (!probing.compareAndSet(false, true)) {
+                return;
+            }
+            executor.scheduleAtFixedRate(() -> {
+                //Choices not followed by a registration within an interval were not for connections
+                pending.set(0);
+                long queued = System.nanoTime();
+                executor.execute(() -> {
+                    long sample = System.nanoTime() - queued;
+                    latency = (latency * 7 + sample) / 8;
+                });
+            }, PROBE_INTERVAL, PROBE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+}
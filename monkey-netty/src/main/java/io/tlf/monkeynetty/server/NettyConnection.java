@@ -24,21 +24,30 @@ SOFTWARE.
 
 package io.tlf.monkeynetty.server;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.util.ReferenceCountUtil;
 import io.tlf.monkeynetty.ConnectionListener;
+import io.tlf.monkeynetty.DispatchPolicy;
 import io.tlf.monkeynetty.NetworkClient;
 import io.tlf.monkeynetty.NetworkServer;
+import io.tlf.monkeynetty.MessageDispatcher;
 import io.tlf.monkeynetty.MessageListener;
 import io.tlf.monkeynetty.msg.NetworkMessage;
 import io.tlf.monkeynetty.NetworkProtocol;
+import io.tlf.monkeynetty.OutboundLimits;
+import io.tlf.monkeynetty.UdpFrame;
 
 import java.nio.channels.ClosedChannelException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,26 +61,50 @@ public class NettyConnection implements NetworkClient {
     private final static Logger LOGGER = Logger.getLogger(NettyConnection.class.getName());
     private SocketChannel tcpConn;
     private UdpChannel udpConn;
-    private final NetworkServer server;
+    private final NettyServer server;
     private boolean connected = false;
-    private final HashSet<MessageListener> handlers = new HashSet<>();
-    private final Object handlerLock = new Object();
+    private volatile boolean closed = false;
+    private final MessageDispatcher handlers = new MessageDispatcher();
     private final Set<ConnectionListener> listeners = Collections.synchronizedSet(new HashSet<>());
 
     private final HashMap<String, Object> atts = new HashMap<>();
+    private final AtomicBoolean tcpSlowConsumer = new AtomicBoolean(false);
+    private final AtomicBoolean udpSlowConsumer = new AtomicBoolean(false);
+    private final AtomicLong outboundDroppedCount = new AtomicLong();
 
-    public NettyConnection(NetworkServer server) {
+    public NettyConnection(NettyServer server) {
         this.server = server;
     }
 
     public void setUdp(UdpChannel conn) {
         udpConn = conn;
+        if (conn != null) {
+            conn.tcpChannel = tcpConn;
+        }
     }
 
     public void setTcp(SocketChannel conn) {
         tcpConn = conn;
     }
 
+    /**
+     * Internal use only
+     *
+     * @return The TCP channel of the connection
+     */
+    protected SocketChannel getTcp() {
+        return tcpConn;
+    }
+
+    /**
+     * Internal use only
+     *
+     * @return The UDP session of the connection, or null if it has not been established
+     */
+    protected UdpChannel getUdp() {
+        return udpConn;
+    }
+
     /**
      * Run all connection listeners on client.
      * The client will be flagged as connected upon the completion
@@ -90,6 +123,17 @@ public class NettyConnection implements NetworkClient {
      * to the remote client endpoint.
      * @return If the client is connected
      */
+    /**
+     * Internal use only
+     * Stop the threads calling the message listeners of the connection once its TCP channel has closed.
+     * Messages received afterwards, such as those still queued for the update thread, are only passed to the
+     * message listeners of the server.
+     */
+    protected void close() {
+        closed = true;
+        handlers.shutdown();
+    }
+
     @Override
     public boolean isConnected() {
         return connected;
@@ -130,12 +174,49 @@ public class NettyConnection implements NetworkClient {
 
     @Override
     public void send(NetworkMessage message) {
+        write(message, message);
+    }
+
+    /**
+     * Internal use only
+     * Send a message that has already been encoded into a frame.
+     * The frame will be released once written.
+     *
+     * @param message The message the frame was encoded from
+     * @param frame   The encoded frame
+     */
+    protected void send(NetworkMessage message, ByteBuf frame) {
+        write(message, message.getProtocol().isUdp() ? new UdpFrame(message.getProtocol(), message.getSequenceChannel(), frame) : frame);
+    }
+
+    /**
+     * Internal use only
+     * Write a message or an encoded frame to the channel for the message protocol.
+     *
+     * @param message The message being sent
+     * @param payload The message or the frame encoded from it
+     */
+    private void write(NetworkMessage message, Object payload) {
+        Channel channel = message.getProtocol() == NetworkProtocol.TCP ? tcpConn : udpConn;
+        if (channel == null) {
+            ReferenceCountUtil.release(payload);
+            LOGGER.log(Level.SEVERE, "Failed to send message to client, no " + (message.getProtocol() == NetworkProtocol.TCP ? "TCP" : "UDP") + " channel");
+            return;
+        }
+        //A session is always writable, its datagrams queue on the socket it shares with the other clients received on it
+        boolean shared = channel == udpConn;
+        Channel limited = shared ? udpConn.serverChannel.ioChannel(udpConn) : channel;
+        if (!checkOutbound(server.getOutboundLimits(), limited, shared, message)) {
+            ReferenceCountUtil.release(payload);
+            return;
+        }
         ChannelFuture future;
         try {
-            if (message.getProtocol() == NetworkProtocol.TCP) {
-                future = tcpConn.writeAndFlush(message);
+            if (message.getProtocol().isUdp() && server.isUdpCoalescing()) {
+                //Flushed by the server each frame
+                future = channel.write(payload);
             } else {
-                future = udpConn.writeAndFlush(message);
+                future = channel.writeAndFlush(payload);
             }
             future.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
             future.addListener((ChannelFutureListener) future1 -> {
@@ -152,17 +233,56 @@ public class NettyConnection implements NetworkClient {
         }
     }
 
+    /**
+     * Internal use only
+     * Apply the outbound limits to a message, notifying listeners when the client stops keeping up.
+     *
+     * @param limits  The outbound limits of the server
+     * @param channel The channel the message is sent on
+     * @param shared  If the channel is the UDP socket shared with other clients
+     * @param message The message being sent
+     * @return If the message should be written
+     */
+    private boolean checkOutbound(OutboundLimits limits, Channel channel, boolean shared, NetworkMessage message) {
+        AtomicBoolean slowConsumer = message.getProtocol() == NetworkProtocol.TCP ? tcpSlowConsumer : udpSlowConsumer;
+        if (channel.isWritable()) {
+            slowConsumer.set(false);
+        } else if (slowConsumer.compareAndSet(false, true)) {
+            try {
+                for (ConnectionListener listener : listeners) {
+                    listener.onSlowConsumer(this, message.getProtocol());
+                }
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Exception thrown running connection listeners", ex);
+            }
+            server.slowConsumer(this, message.getProtocol());
+        }
+        switch (limits.check(channel, message.getProtocol(), shared)) {
+            case DROP:
+                outboundDroppedCount.incrementAndGet();
+                return false;
+            case DISCONNECT:
+                outboundDroppedCount.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Disconnecting {0}, outbound limit exceeded sending {1}", new Object[]{getAddress(), message.getName()});
+                disconnect();
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return The number of messages to the client dropped by the outbound limits of the server
+     */
+    public long getOutboundDroppedCount() {
+        return outboundDroppedCount.get();
+    }
+
     @Override
     public void receive(NetworkMessage message) {
         //Handlers
-        synchronized (handlerLock) {
-            for (MessageListener handler : handlers) {
-                for (Class a : handler.getSupportedMessages()) {
-                    if (a.isInstance(message)) {
-                        handler.onMessage(message, null, this);
-                    }
-                }
-            }
+        if (!closed) {
+            handlers.dispatch(message, null, this);
         }
     }
 
@@ -183,16 +303,17 @@ public class NettyConnection implements NetworkClient {
     
     @Override
     public void registerListener(MessageListener handler) {
-        synchronized (handlerLock) {
-            handlers.add(handler);
-        }
+        handlers.register(handler);
+    }
+
+    @Override
+    public void registerListener(MessageListener handler, DispatchPolicy policy) {
+        handlers.register(handler, policy);
     }
 
     @Override
     public void unregisterListener(MessageListener handler) {
-        synchronized (handlerLock) {
-            handlers.remove(handler);
-        }
+        handlers.unregister(handler);
     }
 
     @Override
@@ -27,11 +27,13 @@ package io.tlf.monkeynetty.server;
 import com.jme3.app.Application;
 import com.jme3.app.state.BaseAppState;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.serialization.ClassResolvers;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
@@ -39,41 +41,67 @@ import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
-import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.NettyRuntime;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import io.tlf.monkeynetty.*;
+import io.tlf.monkeynetty.msg.ClassRegistryMessage;
 import io.tlf.monkeynetty.msg.ConnectionEstablishedMessage;
 import io.tlf.monkeynetty.msg.NetworkMessage;
-import io.tlf.monkeynetty.msg.PingMessage;
 import io.tlf.monkeynetty.msg.UdpConHashMessage;
 
 import java.io.File;
-import java.security.SecureRandom;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class NettyServer extends BaseAppState implements NetworkServer {
 
     private final static Logger LOGGER = Logger.getLogger(NettyServer.class.getName());
-    private final Set<MessageListener> messageListeners = ConcurrentHashMap.newKeySet();
+    private final static ConnectionEstablishedMessage ESTABLISHED = new ConnectionEstablishedMessage();
+    //Seconds between pings, and without reading after which a client is considered dead
+    private final static int HEARTBEAT_INTERVAL = 10;
+    private final static int HEARTBEAT_TIMEOUT = 3 * HEARTBEAT_INTERVAL;
+    private final MessageDispatcher messageListeners = new MessageDispatcher();
     private final Set<ConnectionListener> connectionListeners = ConcurrentHashMap.newKeySet();
     private final Map<Channel, NettyConnection> tcpClients = new ConcurrentHashMap<>();
+    private final ChannelGroup tcpChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
     private final Map<Channel, NettyConnection> udpClients = new ConcurrentHashMap<>();
     private final Map<String, NettyConnection> secrets = new ConcurrentHashMap<>();
     private final Set<NetworkClient> pendingConnections = ConcurrentHashMap.newKeySet();
+    private final MessageCodecRegistry codecs = new MessageCodecRegistry();
+    private final NetworkRegistrar registrar = new NetworkRegistrar();
+    private final NetworkMessageEncoder broadcastEncoder = new NetworkMessageEncoder(codecs, registrar);
 
     private int maxConnections = 10;
     private boolean blocking = false;
     private LogLevel logLevel;
+    private volatile DispatchMode dispatchMode = DispatchMode.NETWORK_THREAD;
+    private volatile MessageQueue messageQueue = new MessageQueue();
+    private volatile boolean udpCoalescing = false;
+    private int datagramSize = UdpCoalescingHandler.DEFAULT_DATAGRAM_SIZE;
+    private int udpSocketCount = Epoll.isAvailable() ? NettyRuntime.availableProcessors() : 1;
+    private TransportOptions transportOptions = new TransportOptions();
+    private OutboundLimits outboundLimits = new OutboundLimits();
+    private boolean connectionAffinity = false;
+    private boolean tcpQuickAck = false;
+    private int busyPoll = 0;
+    private int udpReceiveBatch = 32;
+    private int udpIdleTimeout = (int) TimeUnit.SECONDS.toMillis(HEARTBEAT_TIMEOUT);
+    private int udpSessionBufferSize = UdpServerChannel.DEFAULT_SESSION_BUFFER;
+    private OverflowPolicy udpSessionOverflowPolicy = OverflowPolicy.DROP_OLDEST;
 
     //Netty objects
-    private EventLoopGroup tcpConGroup;
-    private EventLoopGroup tcpMsgGroup;
+    private EventLoopConfig eventLoopConfig = new EventLoopConfig();
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private LeastLoadedChooserFactory workerChooser;
     private ServerBootstrap tcpServer;
     private ChannelFuture tcpFuture;
-    private EventLoopGroup udpConGroup;
-    private EventLoopGroup udpMsgGroup;
+    private EventLoopGroup udpSessionGroup;
     private ServerBootstrap udpServer;
     private ChannelFuture udpFuture;
     private SslContext sslContext;
@@ -158,6 +186,7 @@ public class NettyServer extends BaseAppState implements NetworkServer {
     @Override
     public void onEnable() {
         LOGGER.log(Level.INFO, "Loading Netty.IO Server {0} on port {1,number,#}", new Object[]{getService(), getPort()});
+        registrar.lock();
         setupTcp();
         setupUdp();
         LOGGER.log(Level.INFO, "Server {0} running on port {1,number,#}", new Object[]{getService(), getPort()});
@@ -168,19 +197,34 @@ public class NettyServer extends BaseAppState implements NetworkServer {
         LOGGER.log(Level.INFO, "Unloading Netty.IO Server {0} on port {1,number,#}", new Object[]{getService(), getPort()});
 
         try {
-            tcpConGroup.shutdownGracefully();
-            tcpMsgGroup.shutdownGracefully();
-            tcpFuture.channel().closeFuture().sync();
-            udpConGroup.shutdownGracefully();
-            udpMsgGroup.shutdownGracefully();
-            ((UdpServerChannel) udpFuture.channel()).doClose();
+            //Close the channels before the groups, which may be supplied by the application and outlive the server
+            tcpFuture.channel().close().sync();
+            udpFuture.channel().close().sync();
+            tcpChannels.close().awaitUninterruptibly();
+            if (eventLoopConfig.getBossGroup() == null) {
+                bossGroup.shutdownGracefully();
+            }
+            if (eventLoopConfig.getWorkerGroup() == null) {
+                workerGroup.shutdownGracefully();
+            }
+            udpSessionGroup.shutdownGracefully();
         } catch (Exception ex) {
             LOGGER.log(Level.SEVERE, "Failed to stop server", ex);
         }
+        messageQueue.clear();
+        messageListeners.shutdown();
 
         LOGGER.log(Level.INFO, "Server {0} stopped on port {1,number,#}", new Object[]{getService(), getPort()});
     }
 
+    @Override
+    public void update(float tpf) {
+        if (udpCoalescing) {
+            udpClients.keySet().forEach(Channel::flush);
+        }
+        messageQueue.drain(this::receive);
+    }
+
     @Override
     public int getConnections() {
         return tcpClients.size();
@@ -226,15 +270,18 @@ public class NettyServer extends BaseAppState implements NetworkServer {
                     for (ConnectionListener listener : connectionListeners) {
                         listener.onConnect(client);
                     }
-                    client.send(new ConnectionEstablishedMessage());
+                    ((NettyConnection) client).send(ESTABLISHED, ControlFrames.established());
                     pendingConnections.remove(client);
                 } catch (Exception ex) {
                     LOGGER.log(Level.WARNING, "Exception thrown running connection listeners", ex);
                 }
             } else {
                 //We don't have the client on udp yet
-                //Send them the hand-shake
-                String hash = getUdpHash(128);
+                //Send them the registered classes and the hand-shake
+                client.send(new ClassRegistryMessage(registrar.getRegisteredNames()));
+                InetSocketAddress address = client.getUserData("address");
+                String hash = Base64.getEncoder().encodeToString(((UdpServerChannel) udpFuture.channel())
+                        .issueCookie(address.getAddress(), ((NettyConnection) client).getTcp().eventLoop()));
                 secrets.put(hash, (NettyConnection) client);
                 UdpConHashMessage str = new UdpConHashMessage(hash, true);
                 client.send(str);
@@ -242,6 +289,24 @@ public class NettyServer extends BaseAppState implements NetworkServer {
         }
     }
 
+    /**
+     * Internal use only
+     * Notify the connection listeners that a client is not reading messages fast enough.
+     *
+     * @param client   The client
+     * @param protocol The protocol of the message that could not be written immediately
+     */
+    protected void slowConsumer(NetworkClient client, NetworkProtocol protocol) {
+        LOGGER.log(Level.FINE, "Client {0} is not keeping up with {1} messages", new Object[]{client.getAddress(), protocol});
+        try {
+            for (ConnectionListener listener : connectionListeners) {
+                listener.onSlowConsumer(client, protocol);
+            }
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Exception thrown running connection listeners", ex);
+        }
+    }
+
     /**
      * Internal use only
      * Process an incoming message from a client.
@@ -252,23 +317,63 @@ public class NettyServer extends BaseAppState implements NetworkServer {
      */
     private void receive(NetworkClient client, NetworkMessage message) {
         client.receive(message);
-        for (MessageListener handler : messageListeners) {
-            for (Class<? extends NetworkMessage> a : handler.getSupportedMessages()) {
-                if (a.isInstance(message)) {
-                    try {
-                        handler.onMessage(message, this, client);
-                    } catch (Exception ex) {
-                        LOGGER.log(Level.SEVERE, "Message handler failed to handle message", ex);
-                    }
-                }
+        messageListeners.dispatch(message, this, client);
+    }
+
+    /**
+     * Internal use only
+     * Deliver an incoming message from a client, or queue it when using <code>DispatchMode.UPDATE_THREAD</code>.
+     * The client will be disconnected if the message queue rejects the message.
+     *
+     * @param client The client the message was from
+     * @param message The message sent
+     */
+    private void dispatch(NettyConnection client, NetworkMessage message) {
+        if (dispatchMode == DispatchMode.UPDATE_THREAD) {
+            if (!messageQueue.offer(client, message)) {
+                LOGGER.log(Level.WARNING, "Message queue full, disconnecting {0}", client.getAddress());
+                client.disconnect();
             }
+        } else {
+            receive(client, message);
         }
     }
 
     @Override
     public void send(NetworkMessage message) {
-        Collection<NettyConnection> cs = tcpClients.values();
-        cs.forEach(c -> c.send(message));
+        send(message, tcpClients.values());
+    }
+
+    /**
+     * Send a message to each of the provided clients.
+     * The message is encoded once, and the encoded frame is shared by all the clients.
+     *
+     * @param message The message to send
+     * @param clients The clients to send the message to
+     */
+    @Override
+    public void send(NetworkMessage message, Collection<? extends NetworkClient> clients) {
+        if (clients.isEmpty()) {
+            return;
+        }
+        ByteBuf frame;
+        try {
+            frame = broadcastEncoder.encodeFrame(ByteBufAllocator.DEFAULT, message);
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Failed to encode message " + message.getName(), ex);
+            return;
+        }
+        try {
+            for (NetworkClient client : clients) {
+                if (client instanceof NettyConnection) {
+                    ((NettyConnection) client).send(message, frame.retainedDuplicate());
+                } else {
+                    client.send(message);
+                }
+            }
+        } finally {
+            frame.release();
+        }
     }
 
     @Override
@@ -293,7 +398,7 @@ public class NettyServer extends BaseAppState implements NetworkServer {
 
     @Override
     public NetworkProtocol[] getProtocol() {
-        return new NetworkProtocol[]{NetworkProtocol.UDP, NetworkProtocol.TCP};
+        return new NetworkProtocol[]{NetworkProtocol.UDP, NetworkProtocol.TCP, NetworkProtocol.UDP_RELIABLE, NetworkProtocol.UDP_SEQUENCED};
     }
 
     /**
@@ -312,6 +417,404 @@ public class NettyServer extends BaseAppState implements NetworkServer {
         return logLevel;
     }
 
+    /**
+     * Sets the thread message listeners are called on. By default the mode is <code>DispatchMode.NETWORK_THREAD</code>.
+     * When set to <code>DispatchMode.UPDATE_THREAD</code> received messages are queued in the message queue
+     * and delivered while the server is updated.
+     *
+     * @param dispatchMode The desired dispatch mode
+     */
+    public void setDispatchMode(DispatchMode dispatchMode) {
+        this.dispatchMode = dispatchMode;
+    }
+
+    /**
+     * @return The current dispatch mode
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    /**
+     * Sets the queue received messages are held in when using <code>DispatchMode.UPDATE_THREAD</code>.
+     * This should be set before the server is enabled.
+     *
+     * @param messageQueue The message queue
+     */
+    public void setMessageQueue(MessageQueue messageQueue) {
+        if (messageQueue == null) {
+            throw new NullPointerException("Message queue must not be null");
+        }
+        this.messageQueue = messageQueue;
+    }
+
+    /**
+     * The message queue can be used to configure the frame budget and overflow policies,
+     * and to monitor the queue depth.
+     *
+     * @return The queue received messages are held in when using <code>DispatchMode.UPDATE_THREAD</code>
+     */
+    public MessageQueue getMessageQueue() {
+        return messageQueue;
+    }
+
+    /**
+     * Sets if UDP messages are coalesced. When enabled, UDP messages are not sent immediately, all UDP messages
+     * sent during a frame are packed into as few datagrams as possible and sent when the server is updated,
+     * or sooner if they fill a datagram. By default coalescing is disabled.
+     *
+     * @param udpCoalescing If UDP messages should be coalesced
+     */
+    public void setUdpCoalescing(boolean udpCoalescing) {
+        this.udpCoalescing = udpCoalescing;
+    }
+
+    /**
+     * @return If UDP messages are coalesced
+     */
+    public boolean isUdpCoalescing() {
+        return udpCoalescing;
+    }
+
+    /**
+     * Sets the largest UDP datagram the server will build when coalescing messages, in bytes.
+     * Larger datagrams are split into fragments of this size.
+     * The server and its clients must use the same datagram size to reassemble each other's fragments.
+     * By default this is <code>UdpCoalescingHandler.DEFAULT_DATAGRAM_SIZE</code>.
+     * This should be set before the server is enabled.
+     *
+     * @param datagramSize The datagram size in bytes
+     */
+    public void setDatagramSize(int datagramSize) {
+        if (datagramSize < UdpCoalescingHandler.MIN_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Datagram size must be at least " + UdpCoalescingHandler.MIN_DATAGRAM_SIZE + " bytes");
+        }
+        this.datagramSize = datagramSize;
+    }
+
+    /**
+     * @return The largest UDP datagram the server will build when coalescing messages, in bytes
+     */
+    public int getDatagramSize() {
+        return datagramSize;
+    }
+
+    /**
+     * Sets the sizes, names and any shared groups of the Netty.IO threads used by the server.
+     * This should be set before the server is enabled.
+     *
+     * @param eventLoopConfig The thread configuration
+     */
+    public void setEventLoopConfig(EventLoopConfig eventLoopConfig) {
+        if (eventLoopConfig == null) {
+            throw new NullPointerException("Event loop config must not be null");
+        }
+        this.eventLoopConfig = eventLoopConfig;
+    }
+
+    /**
+     * Sets the socket options of the TCP and UDP channels, such as <code>TCP_NODELAY</code> and buffer sizes.
+     * See <code>TransportOptions</code> for presets. By default only <code>TCP_NODELAY</code> is set.
+     * This should be set before the server is enabled.
+     *
+     * @param transportOptions The socket options
+     */
+    public void setTransportOptions(TransportOptions transportOptions) {
+        if (transportOptions == null) {
+            throw new NullPointerException("Transport options must not be null");
+        }
+        this.transportOptions = transportOptions;
+    }
+
+    /**
+     * @return The socket options of the TCP and UDP channels
+     */
+    public TransportOptions getTransportOptions() {
+        return transportOptions;
+    }
+
+    /**
+     * Sets what happens to messages sent to clients that are not reading them fast enough.
+     * See <code>OutboundLimits</code>.
+     *
+     * @param outboundLimits The outbound limits
+     */
+    public void setOutboundLimits(OutboundLimits outboundLimits) {
+        if (outboundLimits == null) {
+            throw new NullPointerException("Outbound limits must not be null");
+        }
+        this.outboundLimits = outboundLimits;
+    }
+
+    /**
+     * @return What happens to messages sent to clients that are not reading them fast enough
+     */
+    public OutboundLimits getOutboundLimits() {
+        return outboundLimits;
+    }
+
+    /**
+     * The event loop config can be used to size and name the Netty.IO threads, or to share them with other servers.
+     *
+     * @return The thread configuration
+     */
+    public EventLoopConfig getEventLoopConfig() {
+        return eventLoopConfig;
+    }
+
+    /**
+     * Sets if TCP acknowledgements are sent immediately with <code>TCP_QUICKACK</code>, instead of being delayed.
+     * This only applies with the epoll or io_uring transport. By default this is disabled.
+     * This should be set before the server is enabled.
+     *
+     * @param tcpQuickAck If TCP acknowledgements should be sent immediately
+     */
+    public void setTcpQuickAck(boolean tcpQuickAck) {
+        this.tcpQuickAck = tcpQuickAck;
+    }
+
+    /**
+     * @return If TCP acknowledgements are sent immediately with <code>TCP_QUICKACK</code>
+     */
+    public boolean isTcpQuickAck() {
+        return tcpQuickAck;
+    }
+
+    /**
+     * Sets the time in microseconds to busy poll the network device with <code>SO_BUSY_POLL</code> when reading
+     * a socket with no data, trading CPU for lower latency. This applies to TCP and UDP sockets with the epoll transport,
+     * and to TCP sockets with the io_uring transport. By default this is 0, disabling busy polling.
+     * This should be set before the server is enabled.
+     *
+     * @param busyPoll The busy poll time in microseconds
+     */
+    public void setBusyPoll(int busyPoll) {
+        if (busyPoll < 0) {
+            throw new IllegalArgumentException("Busy poll time must not be negative");
+        }
+        this.busyPoll = busyPoll;
+    }
+
+    /**
+     * @return The time in microseconds to busy poll the network device when reading a socket with no data
+     */
+    public int getBusyPoll() {
+        return busyPoll;
+    }
+
+    /**
+     * Sets the number of UDP sockets the server receives on, each with its own thread.
+     * On Linux with epoll available, each socket is bound to the server port with SO_REUSEPORT and the kernel
+     * spreads clients across them, otherwise a single socket is always used.
+     * By default this is the number of processors when epoll is available, otherwise 1.
+     * With more than one socket, the UDP messages of a client are decoded on the thread of the socket receiving them,
+     * so this is also the number of threads decoding UDP messages and running listeners with
+     * <code>DispatchMode.NETWORK_THREAD</code>. With a single socket, sessions are spread across a separate pool of
+     * one thread per processor instead, which costs a thread handoff for each datagram but keeps one thread from
+     * decoding the messages of every client.
+     * This is not used with connection affinity, which binds a socket on each worker thread instead.
+     * This should be set before the server is enabled.
+     *
+     * @param udpSocketCount The number of UDP sockets
+     */
+    public void setUdpSocketCount(int udpSocketCount) {
+        if (udpSocketCount < 1) {
+            throw new IllegalArgumentException("Must have at least 1 UDP socket");
+        }
+        this.udpSocketCount = udpSocketCount;
+    }
+
+    /**
+     * @return The number of UDP sockets the server receives on
+     */
+    public int getUdpSocketCount() {
+        return udpSocketCount;
+    }
+
+    /**
+     * Sets if the UDP session of each client runs on the worker thread of its TCP connection.
+     * With connection affinity, a UDP socket is bound on each worker thread instead of on threads of its own,
+     * and the TCP messages, UDP messages and UDP writes of a client are all handled on one thread, so listeners
+     * with <code>DispatchMode.NETWORK_THREAD</code> may keep per client state without synchronization.
+     * The kernel still chooses the socket receiving the datagrams of a client, so a received datagram may be handed
+     * to the client's thread once. On NIO a single UDP socket is bound, on the first worker thread.
+     * By default this is false.
+     * This should be set before the server is enabled.
+     *
+     * @param connectionAffinity If the TCP and UDP traffic of a client run on one thread
+     */
+    public void setConnectionAffinity(boolean connectionAffinity) {
+        this.connectionAffinity = connectionAffinity;
+    }
+
+    /**
+     * @return If the TCP and UDP traffic of a client run on one thread
+     */
+    public boolean isConnectionAffinity() {
+        return connectionAffinity;
+    }
+
+    /**
+     * Sets the number of datagrams read from a UDP socket with each <code>recvmmsg</code> call.
+     * This only applies on Linux with epoll available, a batch size of 1 disables batched reads.
+     * By default this is 32.
+     * This should be set before the server is enabled.
+     *
+     * @param udpReceiveBatch The number of datagrams to read at once
+     */
+    public void setUdpReceiveBatch(int udpReceiveBatch) {
+        if (udpReceiveBatch < 1) {
+            throw new IllegalArgumentException("Must receive at least 1 datagram per batch");
+        }
+        this.udpReceiveBatch = udpReceiveBatch;
+    }
+
+    /**
+     * @return The number of datagrams read from a UDP socket with each <code>recvmmsg</code> call
+     */
+    public int getUdpReceiveBatch() {
+        return udpReceiveBatch;
+    }
+
+    /**
+     * Sets the time in milliseconds without receiving a UDP datagram after which a UDP session is closed.
+     * This removes the sessions of clients that have vanished, and of datagrams that were never associated with a client.
+     * The session of a client whose TCP connection is still open is not closed, as the client can not open another
+     * session for the connection. It is closed with the TCP connection.
+     * A timeout of 0 disables closing idle sessions.
+     * By default this is 30 seconds, the time without a heartbeat after which a TCP connection is closed.
+     * This should be set before the server is enabled.
+     *
+     * @param udpIdleTimeout The idle timeout in milliseconds
+     */
+    public void setUdpIdleTimeout(int udpIdleTimeout) {
+        if (udpIdleTimeout < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative");
+        }
+        this.udpIdleTimeout = udpIdleTimeout;
+    }
+
+    /**
+     * @return The time in milliseconds without receiving a UDP datagram after which a UDP session is closed
+     */
+    public int getUdpIdleTimeout() {
+        return udpIdleTimeout;
+    }
+
+    /**
+     * @return The number of open UDP sessions, including sessions not yet associated with a client
+     */
+    public int getUdpSessionCount() {
+        return udpFuture == null ? 0 : ((UdpServerChannel) udpFuture.channel()).getSessionCount();
+    }
+
+    /**
+     * @return The number of UDP sessions closed for being idle
+     */
+    public long getUdpReapedCount() {
+        return udpFuture == null ? 0 : ((UdpServerChannel) udpFuture.channel()).getReapedCount();
+    }
+
+    /**
+     * Sets the number of received UDP datagrams each client holds until they are decoded, rounded up to a power of two.
+     * This bounds the memory a burst from one client can hold. By default this is 512.
+     * This should be set before the server is enabled.
+     *
+     * @param udpSessionBufferSize The number of datagrams held per client
+     */
+    public void setUdpSessionBufferSize(int udpSessionBufferSize) {
+        if (udpSessionBufferSize < 1) {
+            throw new IllegalArgumentException("Session buffer must hold at least 1 datagram");
+        }
+        this.udpSessionBufferSize = udpSessionBufferSize;
+    }
+
+    /**
+     * @return The number of received UDP datagrams each client holds until they are decoded
+     */
+    public int getUdpSessionBufferSize() {
+        return udpSessionBufferSize;
+    }
+
+    /**
+     * Sets what happens to a received UDP datagram when the buffer of its client is full,
+     * either <code>OverflowPolicy.DROP_OLDEST</code> or <code>OverflowPolicy.DROP_NEWEST</code>.
+     * By default this is <code>OverflowPolicy.DROP_OLDEST</code>.
+     * This should be set before the server is enabled.
+     *
+     * @param udpSessionOverflowPolicy The overflow policy
+     */
+    public void setUdpSessionOverflowPolicy(OverflowPolicy udpSessionOverflowPolicy) {
+        if (udpSessionOverflowPolicy != OverflowPolicy.DROP_OLDEST && udpSessionOverflowPolicy != OverflowPolicy.DROP_NEWEST) {
+            throw new IllegalArgumentException("UDP session buffers only support DROP_OLDEST and DROP_NEWEST");
+        }
+        this.udpSessionOverflowPolicy = udpSessionOverflowPolicy;
+    }
+
+    /**
+     * @return What happens to a received UDP datagram when the buffer of its client is full
+     */
+    public OverflowPolicy getUdpSessionOverflowPolicy() {
+        return udpSessionOverflowPolicy;
+    }
+
+    /**
+     * @return The number of received UDP datagrams dropped because the buffer of a client was full
+     */
+    public long getUdpDroppedCount() {
+        return udpFuture == null ? 0 : ((UdpServerChannel) udpFuture.channel()).getDroppedCount();
+    }
+
+    /**
+     * @return The load of each worker thread, or an empty list if connections are not assigned by load
+     */
+    public List<LeastLoadedChooserFactory.Load> getWorkerLoads() {
+        return workerChooser == null ? Collections.emptyList() : workerChooser.getLoads();
+    }
+
+    /**
+     * @return The number of UDP datagrams dropped for not belonging to a UDP session or carrying a valid cookie
+     */
+    public long getUdpRejectedCount() {
+        return udpFuture == null ? 0 : ((UdpServerChannel) udpFuture.channel()).getRejectedCount();
+    }
+
+    /**
+     * Register a class with the server, so it is transported as a compact UID instead of by name.
+     * Any class sent frequently should be registered, this includes message classes and the
+     * classes of serializable objects within messages.
+     * The registered classes are sent to each client during the handshake.
+     *
+     * @param type The class to register
+     * @throws IllegalStateException If the server has already been enabled
+     */
+    public void registerClass(Class<? extends Serializable> type) {
+        registrar.register(type);
+    }
+
+    /**
+     * Register a codec used to transport a message class, replacing java serialization for that class.
+     * The same codec must be registered with the client.
+     * Codecs should be registered before the server is enabled.
+     *
+     * @param type  The message class
+     * @param codec The codec used to transport the message class
+     * @param <T>   The message type
+     */
+    public <T extends NetworkMessage> void registerCodec(Class<T> type, MessageCodec<? super T> codec) {
+        codecs.register(type, codec);
+    }
+
+    /**
+     * Unregister the codec for a message class.
+     * The message class will be transported using java serialization.
+     *
+     * @param type The message class
+     */
+    public void unregisterCodec(Class<? extends NetworkMessage> type) {
+        codecs.unregister(type);
+    }
+
     /**
      * Internal use only
      * Setup the TCP netty.io server pipeline.
@@ -339,11 +842,21 @@ public class NettyServer extends BaseAppState implements NetworkServer {
         }
         //Setup tcp socket
         try {
-            tcpConGroup = new NioEventLoopGroup();
-            tcpMsgGroup = new NioEventLoopGroup();
+            bossGroup = eventLoopConfig.getBossGroup() != null ? eventLoopConfig.getBossGroup()
+                    : eventLoopConfig.getTransport().newEventLoopGroup(eventLoopConfig.getBossThreads(), eventLoopConfig.newThreadFactory("boss"));
+            workerChooser = null;
+            if (eventLoopConfig.getWorkerGroup() != null) {
+                workerGroup = eventLoopConfig.getWorkerGroup();
+            } else if (eventLoopConfig.isLeastLoadedWorkers()) {
+                workerChooser = new LeastLoadedChooserFactory();
+                workerGroup = eventLoopConfig.getTransport().newEventLoopGroup(eventLoopConfig.getWorkerThreads(),
+                        eventLoopConfig.newThreadFactory("worker"), workerChooser);
+            } else {
+                workerGroup = eventLoopConfig.getTransport().newEventLoopGroup(eventLoopConfig.getWorkerThreads(), eventLoopConfig.newThreadFactory("worker"));
+            }
             tcpServer = new ServerBootstrap();
-            tcpServer.group(tcpConGroup, tcpMsgGroup)
-                    .channel(NioServerSocketChannel.class)
+            tcpServer.group(bossGroup, workerGroup)
+                    .channel(eventLoopConfig.getTransport().serverSocketChannel())
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         public void initChannel(SocketChannel ch) {
@@ -352,7 +865,11 @@ public class NettyServer extends BaseAppState implements NetworkServer {
                             client.setTcp(ch);
                             client.setUserData("address", ch.remoteAddress());
                             tcpClients.put(ch, client);
+                            tcpChannels.add(ch);
                             pendingConnections.add(client);
+                            if (workerChooser != null) {
+                                workerChooser.register(ch);
+                            }
 
                             //Disconnect client listener
                             ch.closeFuture().addListener((ChannelFutureListener) future -> {
@@ -373,6 +890,10 @@ public class NettyServer extends BaseAppState implements NetworkServer {
                                 }
 
                                 tcpClients.remove(future.channel());
+                                //The UDP session can not be used without the TCP connection
+                                if (connection.getUdp() != null) {
+                                    connection.getUdp().close();
+                                }
 
                                 try {
                                     for (ConnectionListener listener : connectionListeners) {
@@ -381,27 +902,30 @@ public class NettyServer extends BaseAppState implements NetworkServer {
                                 } catch (Exception ex) {
                                     LOGGER.log(Level.WARNING, "Exception thrown running connection listeners", ex);
                                 }
+                                connection.close();
                             });
 
                             //Setup ssl
                             if (ssl) {
                                 p.addLast(sslContext.newHandler(ch.alloc()));
                             }
+                            //Keep alive, before the decoder so pings count as reads
+                            p.addLast(new HeartbeatHandler(HEARTBEAT_TIMEOUT, HEARTBEAT_INTERVAL, TimeUnit.SECONDS));
 
                             //Setup pipeline
                             if (logLevel != null) {
                                 p.addLast(new LoggingHandler(logLevel));
                             }
                             p.addLast(
-                                    new NetworkMessageEncoder(),
-                                    new NetworkMessageDecoder(Integer.MAX_VALUE, ClassResolvers.cacheDisabled(null)),
+                                    new NetworkMessageEncoder(codecs, registrar),
+                                    new NetworkMessageDecoder(Integer.MAX_VALUE, MessageClassResolver.defaultResolver(), codecs, registrar),
                                     new ChannelInboundHandlerAdapter() {
                                         @Override
                                         public void channelRead(ChannelHandlerContext ctx, Object msg) {
                                             if (msg instanceof NetworkMessage) {
                                                 NettyConnection conn = tcpClients.get(ctx.channel());
                                                 if (!pendingConnections.contains(conn)) {
-                                                    receive(conn, (NetworkMessage) msg);
+                                                    dispatch(conn, (NetworkMessage) msg);
                                                 } else {
                                                     LOGGER.fine("Rejected message " + ((NetworkMessage) msg).getName() + " from " + conn.getAddress() + ". Connection not fully established");
                                                 }
@@ -422,18 +946,11 @@ public class NettyServer extends BaseAppState implements NetworkServer {
                                             ctx.close();
                                         }
                                     },
-                                    new IdleStateHandler(30, 10, 0),
                                     new ChannelDuplexHandler() {
                                         @Override
                                         public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
-                                            if (evt instanceof IdleStateEvent) {
-                                                IdleStateEvent e = (IdleStateEvent) evt;
-                                                if (e.state() == IdleState.READER_IDLE) {
-                                                    ctx.close();
-                                                } else if (e.state() == IdleState.WRITER_IDLE) {
-                                                    NettyConnection conn = tcpClients.get(ctx.channel());
-                                                    conn.send(new PingMessage());
-                                                }
+                                            if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+                                                ctx.close();
                                             }
                                         }
                                     }
@@ -442,12 +959,30 @@ public class NettyServer extends BaseAppState implements NetworkServer {
                             receive(client);
                         }
                     });
+            transportOptions.applyTcp(tcpServer);
+            setNativeOptions(tcpServer, eventLoopConfig.getTransport());
             tcpFuture = tcpServer.bind(port).sync();
         } catch (Exception ex) {
             LOGGER.log(Level.SEVERE, "Outside TCP server crash", ex);
         }
     }
 
+    /**
+     * Internal use only
+     * Set the latency options supported by the transport on accepted TCP connections.
+     *
+     * @param bootstrap The TCP server bootstrap
+     * @param transport The transport of the bootstrap
+     */
+    private void setNativeOptions(ServerBootstrap bootstrap, Transport transport) {
+        if (tcpQuickAck && transport.tcpQuickAck() != null) {
+            bootstrap.childOption(transport.tcpQuickAck(), true);
+        }
+        if (busyPoll > 0 && transport.busyPoll() != null) {
+            bootstrap.childOption(transport.busyPoll(), busyPoll);
+        }
+    }
+
     /**
      * Internal use only
      * Setup the UDP netty.io server pipeline.
@@ -456,11 +991,35 @@ public class NettyServer extends BaseAppState implements NetworkServer {
      */
     private void setupUdp() {
         try {
-            udpConGroup = new NioEventLoopGroup();
-            udpMsgGroup = new NioEventLoopGroup();
+            if (connectionAffinity || (udpSocketCount > 1 && Epoll.isAvailable())) {
+                //Sessions are registered on the threads of the UDP sockets or TCP connections, so the thread of this group is never started
+                udpSessionGroup = new DefaultEventLoopGroup(1, eventLoopConfig.newThreadFactory("udp-session")) {
+                    @Override
+                    public ChannelFuture register(Channel channel) {
+                        //Pin each session to the thread of its TCP connection with connection affinity,
+                        //otherwise to the thread of the socket receiving its datagrams, so they are read without a thread handoff
+                        EventLoop loop = channel instanceof UdpChannel ? ((UdpChannel) channel).sessionLoop() : null;
+                        return loop != null ? loop.register(channel) : super.register(channel);
+                    }
+                };
+            } else {
+                //A single socket thread would decode the messages of every client, so sessions are spread across a pool
+                udpSessionGroup = new DefaultEventLoopGroup(NettyRuntime.availableProcessors(), eventLoopConfig.newThreadFactory("udp-session"));
+            }
             udpServer = new ServerBootstrap();
-            udpServer.group(udpConGroup, udpMsgGroup)
-                    .channel(UdpServerChannel.class)
+            udpServer.group(bossGroup, udpSessionGroup)
+                    .channelFactory(() -> {
+                        int size = Math.max(datagramSize, UdpServerChannel.BUFFER_ALLOC);
+                        UdpServerChannel channel = connectionAffinity
+                                ? new UdpServerChannel(workerGroup, eventLoopConfig.getTransport().datagramChannel(), size, udpReceiveBatch)
+                                : new UdpServerChannel(udpSocketCount, size, udpReceiveBatch, eventLoopConfig.newThreadFactory("udp"));
+                        channel.setIdleTimeout(udpIdleTimeout, TimeUnit.MILLISECONDS);
+                        channel.setBusyPoll(busyPoll);
+                        channel.setTransportOptions(transportOptions);
+                        channel.setSessionBufferSize(udpSessionBufferSize);
+                        channel.setSessionOverflowPolicy(udpSessionOverflowPolicy);
+                        return channel;
+                    })
                     .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(65535))
                     .childHandler(new ChannelInitializer<UdpChannel>() {
                         @Override
@@ -479,13 +1038,20 @@ public class NettyServer extends BaseAppState implements NetworkServer {
                                 p.addLast(new LoggingHandler(logLevel));
                             }
                             p.addLast(
-                                    new NetworkMessageEncoder(),
-                                    new NetworkMessageDecoder(65507, ClassResolvers.cacheDisabled(null)),
+                                    new UdpFragmentationHandler(datagramSize, 65507),
+                                    new UdpCoalescingHandler(datagramSize),
+                                    new UdpDeliveryHandler(),
+                                    new UdpMessageEncoder(codecs, registrar),
+                                    new NetworkMessageDecoder(65507, MessageClassResolver.defaultResolver(), codecs, registrar),
                                     new ChannelInboundHandlerAdapter() {
                                         @Override
                                         public void channelRead(ChannelHandlerContext ctx, Object msg) {
                                             //Connect udp client when requested
                                             if (msg instanceof UdpConHashMessage) {
+                                                if (udpClients.containsKey(ctx.channel())) {
+                                                    //The client resends the hash until it knows the session is open
+                                                    return;
+                                                }
                                                 NettyConnection client = secrets.get(((UdpConHashMessage) msg).getUdpHash());
                                                 if (client == null) {
                                                     ctx.close();
@@ -502,7 +1068,7 @@ public class NettyServer extends BaseAppState implements NetworkServer {
                                             if (msg instanceof NetworkMessage) {
                                                 NettyConnection conn = udpClients.get(ctx.channel());
                                                 if (!pendingConnections.contains(conn)) {
-                                                    receive(conn, (NetworkMessage) msg);
+                                                    dispatch(conn, (NetworkMessage) msg);
                                                 } else {
                                                     LOGGER.fine("Rejected message " + ((NetworkMessage) msg).getName() + " from " + conn.getAddress() + ". Connection not fully established");
                                                 }
@@ -545,12 +1111,17 @@ public class NettyServer extends BaseAppState implements NetworkServer {
 
     @Override
     public void registerListener(MessageListener handler) {
-        messageListeners.add(handler);
+        messageListeners.register(handler);
+    }
+
+    @Override
+    public void registerListener(MessageListener handler, DispatchPolicy policy) {
+        messageListeners.register(handler, policy);
     }
 
     @Override
     public void unregisterListener(MessageListener handler) {
-        messageListeners.remove(handler);
+        messageListeners.unregister(handler);
     }
 
     @Override
@@ -562,23 +1133,4 @@ public class NettyServer extends BaseAppState implements NetworkServer {
     public void unregisterListener(ConnectionListener listener) {
         connectionListeners.remove(listener);
     }
-
-    /**
-     * Internal use only
-     * Generates a base64 like hash
-     *
-     * @param len The number of characters to generate in the hash
-     * @return The generated base64 like hash
-     */
-    private String getUdpHash(int len) {
-        String SALTCHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890!@#$%^&*()_+-=[]{};':\",.<>/?\\";
-        StringBuilder salt = new StringBuilder();
-        SecureRandom rnd = new SecureRandom();
-        while (salt.length() < len) { // length of the random string.
-            int index = (int) (rnd.nextFloat() * SALTCHARS.length());
-            salt.append(SALTCHARS.charAt(index));
-        }
-        return salt.toString();
-
-    }
 }
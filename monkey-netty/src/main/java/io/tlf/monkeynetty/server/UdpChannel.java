@@ -31,7 +31,6 @@ import io.netty.util.internal.RecyclableArrayList;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -43,7 +42,14 @@ public class UdpChannel extends AbstractChannel {
     protected final DefaultChannelConfig config = new DefaultChannelConfig(this);
     protected final UdpServerChannel serverChannel;
     protected final InetSocketAddress remote;
-    protected final ConcurrentLinkedQueue<ByteBuf> buffers = new ConcurrentLinkedQueue<>();
+    protected volatile Channel ioChannel;
+    protected volatile EventLoop affinity;
+    protected volatile long lastReceived = System.nanoTime();
+    /**
+     * The TCP connection of the client using the session, which keeps the session open while it is active
+     */
+    protected volatile Channel tcpChannel;
+    protected final DatagramRingBuffer buffers;
 
     protected AtomicBoolean isNew = new AtomicBoolean(true);
     protected volatile boolean open = true;
@@ -53,6 +59,28 @@ public class UdpChannel extends AbstractChannel {
         super(serverchannel);
         this.serverChannel = serverchannel;
         this.remote = remote;
+        this.buffers = new DatagramRingBuffer(serverchannel.sessionBufferSize, serverchannel.sessionOverflowPolicy);
+    }
+
+    /**
+     * @return The number of received datagrams dropped because the pipeline did not read them fast enough
+     */
+    public long getDroppedCount() {
+        return buffers.getDroppedCount();
+    }
+
+    /**
+     * Internal use only
+     *
+     * @return The event loop the session should be registered on, the loop of its TCP connection when the server
+     * has connection affinity, otherwise the loop of the socket receiving its datagrams
+     */
+    protected EventLoop sessionLoop() {
+        if (affinity != null) {
+            return affinity;
+        }
+        Channel receiver = ioChannel;
+        return receiver != null ? receiver.eventLoop() : null;
     }
 
     protected boolean getIsNew() {
@@ -82,6 +110,7 @@ public class UdpChannel extends AbstractChannel {
     @Override
     protected void doClose() {
         open = false;
+        buffers.clear();
         serverChannel.doUserChannelRemove(this);
     }
 
@@ -91,7 +120,11 @@ public class UdpChannel extends AbstractChannel {
     }
 
     protected void addBuffer(ByteBuf buffer) {
-        this.buffers.add(buffer);
+        this.buffers.offer(buffer);
+        if (!open) {
+            //Closed while adding, nothing will read the buffer again
+            this.buffers.clear();
+        }
     }
 
     @Override
@@ -129,7 +162,7 @@ public class UdpChannel extends AbstractChannel {
                 list.recycle();
             }
         }
-        serverChannel.doWrite(list, remote);
+        serverChannel.doWrite(list, this);
     }
 
     @Override
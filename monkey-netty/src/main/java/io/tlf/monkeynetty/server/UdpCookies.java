@@ -0,0 +1,184 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Internal use only
+ * UdpCookies issues and verifies the stateless cookies a client must present to open a UDP session.
+ * A cookie is the nonce, the affinity, the expiry time, and a truncated HMAC-SHA256 of them with the client address,
+ * keyed by a secret generated when the server starts. The affinity is an index the server chooses when issuing
+ * the cookie, the mac keeps clients from changing it. Verifying a cookie needs no state and allocates nothing,
+ * so datagrams from unknown addresses can be dropped before any session is created for them.
+ */
+final class UdpCookies {
+
+    /**
+     * The length of a cookie in bytes
+     */
+    static final int COOKIE_LENGTH = 32;
+
+    /**
+     * The time in milliseconds a cookie is valid for after it is issued
+     */
+    static final long COOKIE_LIFETIME = TimeUnit.SECONDS.toMillis(30);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    /**
+     * The affinity of a cookie issued without one
+     */
+    static final int NO_AFFINITY = 0xFFFF;
+
+    private static final int NONCE_LENGTH = 6;
+    private static final int AFFINITY_INDEX = NONCE_LENGTH;
+    private static final int EXPIRY_INDEX = AFFINITY_INDEX + 2;
+    private static final int SIGNED_LENGTH = EXPIRY_INDEX + 8;
+    private static final int MAC_LENGTH = COOKIE_LENGTH - SIGNED_LENGTH;
+
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKeySpec key;
+    private final FastThreadLocal<Mac> macs = new FastThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() throws GeneralSecurityException {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        }
+    };
+    private final FastThreadLocal<byte[]> scratch = new FastThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[32];
+        }
+    };
+
+    UdpCookies() {
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        key = new SecretKeySpec(secret, ALGORITHM);
+    }
+
+    /**
+     * Internal use only
+     * Issue a cookie for a client.
+     *
+     * @param address  The address the client connected from
+     * @param affinity The affinity, from 0 to <code>NO_AFFINITY</code>
+     * @return The cookie
+     */
+    byte[] issue(InetAddress address, int affinity) {
+        byte[] cookie = new byte[COOKIE_LENGTH];
+        synchronized (random) {
+            random.nextBytes(cookie);
+        }
+        cookie[AFFINITY_INDEX] = (byte) (affinity >>> 8);
+        cookie[AFFINITY_INDEX + 1] = (byte) affinity;
+        long expiry = System.currentTimeMillis() + COOKIE_LIFETIME;
+        for (int i = 0; i < 8; i++) {
+            cookie[EXPIRY_INDEX + i] = (byte) (expiry >>> (56 - 8 * i));
+        }
+        Mac mac = macs.get();
+        mac.update(cookie, 0, SIGNED_LENGTH);
+        updateAddress(mac, address, scratch.get());
+        byte[] digest = mac.doFinal();
+        System.arraycopy(digest, 0, cookie, SIGNED_LENGTH, MAC_LENGTH);
+        return cookie;
+    }
+
+    /**
+     * Internal use only
+     * Verify the cookie presented by a client.
+     *
+     * @param buf     The buffer holding the cookie
+     * @param index   The index of the cookie in the buffer
+     * @param address The address the cookie was received from
+     * @return If the cookie was issued by this server for the address and has not expired
+     */
+    boolean verify(ByteBuf buf, int index, InetAddress address) {
+        if (buf.writerIndex() - index < COOKIE_LENGTH || buf.getLong(index + EXPIRY_INDEX) < System.currentTimeMillis()) {
+            return false;
+        }
+        byte[] bytes = scratch.get();
+        buf.getBytes(index, bytes, 0, SIGNED_LENGTH);
+        Mac mac = macs.get();
+        mac.update(bytes, 0, SIGNED_LENGTH);
+        updateAddress(mac, address, bytes);
+        try {
+            mac.doFinal(bytes, 0);
+        } catch (GeneralSecurityException ex) {
+            return false;
+        }
+        //Compare in constant time, so the time taken does not reveal how much of the mac was correct
+        int diff = 0;
+        for (int i = 0; i < MAC_LENGTH; i++) {
+            diff |= bytes[i] ^ buf.getByte(index + SIGNED_LENGTH + i);
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Internal use only
+     * Read the affinity of a verified cookie.
+     *
+     * @param buf   The buffer holding the cookie
+     * @param index The index of the cookie in the buffer
+     * @return The affinity the cookie was issued with
+     */
+    static int affinity(ByteBuf buf, int index) {
+        return buf.getUnsignedShort(index + AFFINITY_INDEX);
+    }
+
+    /**
+     * Internal use only
+     * Add the client address to the mac.
+     * The hash code of an IPv4 address is the address, so it is used to avoid copying the address.
+     *
+     * @param mac     The mac
+     * @param address The client address
+     * @param bytes   A scratch buffer of at least 4 bytes
+     */
+    private static void updateAddress(Mac mac, InetAddress address, byte[] bytes) {
+        if (address instanceof Inet4Address) {
+            int ip = address.hashCode();
+            bytes[0] = (byte) (ip >>> 24);
+            bytes[1] = (byte) (ip >>> 16);
+            bytes[2] = (byte) (ip >>> 8);
+            bytes[3] = (byte) ip;
+            mac.update(bytes, 0, 4);
+        } else {
+            mac.update(address.getAddress());
+        }
+    }
+}
@@ -26,23 +26,37 @@ package io.tlf.monkeynetty.server;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.*;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.epoll.EpollDatagramChannel;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.unix.SegmentedDatagramPacket;
 import io.netty.channel.unix.UnixChannelOption;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.tlf.monkeynetty.OverflowPolicy;
+import io.tlf.monkeynetty.TransportOptions;
+import io.tlf.monkeynetty.UdpDeliveryHandler;
 import io.netty.util.internal.RecyclableArrayList;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Trevor Flynn trevorflynn@liquidcrystalstudios.com
@@ -51,10 +65,37 @@ public class UdpServerChannel extends AbstractServerChannel {
 
     protected final static int BUFFER_ALLOC = 2048;
     protected final static int DEFAULT_THREADS = 1;
+    protected final static int DEFAULT_RECEIVE_BATCH = 1;
+    protected final static int MAX_SEGMENTS = 64;
+    protected final static int MAX_SEGMENTED_SIZE = 65507;
+    protected final static int DEFAULT_SESSION_BUFFER = 512;
 
     protected volatile boolean open = true;
+    protected volatile long idleTimeout = 0;
+    protected final AtomicLong reapedCount = new AtomicLong();
+    protected final AtomicLong rejectedCount = new AtomicLong();
+    protected final AtomicLong closedDroppedCount = new AtomicLong();
+    protected volatile int sessionBufferSize = DEFAULT_SESSION_BUFFER;
+    protected volatile OverflowPolicy sessionOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+    protected final UdpCookies cookies = new UdpCookies();
+    protected HashedWheelTimer reaper;
 
     protected final EventLoopGroup group;
+    protected final boolean ownsGroup;
+    protected final List<EventLoop> sessionLoops = new ArrayList<>();
+    protected final Map<EventLoop, Channel> ioChannelsByLoop = new ConcurrentHashMap<>();
+    protected final ChannelInitializer<Channel> ioInitializer = new ChannelInitializer<Channel>() {
+        final ReadRouteChannelHandler ioReadRoute = new ReadRouteChannelHandler();
+
+        @Override
+        protected void initChannel(Channel ioChannel) throws Exception {
+            ioChannel.pipeline().addLast(ioReadRoute);
+        }
+    };
+    protected final boolean segmented;
+    protected final boolean ebolaAvailable;
+    protected int busyPoll = 0;
+    protected TransportOptions transportOptions;
     protected final List<Bootstrap> ioBootstraps = new ArrayList<>();
     protected final List<Channel> ioChannels = new ArrayList<>();
     protected final ConcurrentHashMap<InetSocketAddress, UdpChannel> userChannels = new ConcurrentHashMap<>();
@@ -79,47 +120,398 @@ public class UdpServerChannel extends AbstractServerChannel {
     }
 
     public UdpServerChannel(int threads) {
+        this(threads, BUFFER_ALLOC, DEFAULT_RECEIVE_BATCH);
+    }
+
+    /**
+     * Create a new UDP server channel.
+     * When epoll is available, each thread binds its own socket to the port using SO_REUSEPORT, so the kernel
+     * spreads clients across the sockets. Otherwise a single socket is used regardless of the thread count.
+     * When epoll is available and the receive batch is more than 1, datagrams are read in batches with
+     * <code>recvmmsg</code>, and when the kernel supports UDP GSO, runs of equally sized datagrams written to
+     * a client are sent with a single <code>sendmsg</code>.
+     *
+     * @param threads      The number of sockets and threads receiving datagrams
+     * @param datagramSize The largest datagram that will be received, in bytes, larger datagrams are truncated
+     * @param receiveBatch The number of datagrams to read with each <code>recvmmsg</code>
+     */
+    public UdpServerChannel(int threads, int datagramSize, int receiveBatch) {
+        this(threads, datagramSize, receiveBatch, new DefaultThreadFactory(UdpServerChannel.class));
+    }
+
+    /**
+     * Create a new UDP server channel.
+     *
+     * @param threads       The number of sockets and threads receiving datagrams
+     * @param datagramSize  The largest datagram that will be received, in bytes, larger datagrams are truncated
+     * @param receiveBatch  The number of datagrams to read with each <code>recvmmsg</code>
+     * @param threadFactory The factory creating the threads receiving datagrams
+     * @see #UdpServerChannel(int, int, int)
+     */
+    public UdpServerChannel(int threads, int datagramSize, int receiveBatch, ThreadFactory threadFactory) {
         if (threads < 1) {
             throw new IllegalArgumentException("Must have at least 1 thread");
         }
-        boolean ebolaAvailable = Epoll.isAvailable();
+        if (receiveBatch < 1) {
+            throw new IllegalArgumentException("Must receive at least 1 datagram per batch");
+        }
+        ebolaAvailable = Epoll.isAvailable();
         if (!ebolaAvailable) {
             threads = DEFAULT_THREADS;
         }
-        group = ebolaAvailable ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+        segmented = ebolaAvailable && EpollDatagramChannel.isSegmentedDatagramPacketSupported();
+        group = ebolaAvailable ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+        ownsGroup = true;
         Class<? extends DatagramChannel> channel = ebolaAvailable ? EpollDatagramChannel.class : NioDatagramChannel.class;
-        ChannelInitializer<Channel> initializer = new ChannelInitializer<Channel>() {
-            final ReadRouteChannelHandler ioReadRoute = new ReadRouteChannelHandler();
+        while (threads-- > 0) {
+            addBootstrap(group, channel, ebolaAvailable, datagramSize, receiveBatch);
+        }
+    }
 
-            @Override
-            protected void initChannel(Channel ioChannel) throws Exception {
-                ioChannel.pipeline().addLast(ioReadRoute);
+    /**
+     * Create a new UDP server channel with connection affinity, using the event loops of an existing group.
+     * A socket is bound to the port with SO_REUSEPORT on each event loop of the group, unless the channel is NIO,
+     * which binds a single socket on the first event loop.
+     * Each session is registered on the event loop given when its cookie was issued, and its datagrams are written
+     * with the socket of that event loop, so a session shares the event loop of the TCP connection it belongs to.
+     * Datagrams received by the socket of another event loop are handed to the session's event loop,
+     * since the kernel chooses the receiving socket. The group is not shut down when the channel is closed.
+     *
+     * @param group        The event loop group, usually the group of the TCP connections
+     * @param channel      The datagram channel class, compatible with the group
+     * @param datagramSize The largest datagram that will be received, in bytes, larger datagrams are truncated
+     * @param receiveBatch The number of datagrams to read with each <code>recvmmsg</code>, epoll only
+     * @see #issueCookie(InetAddress, EventLoop)
+     */
+    public UdpServerChannel(EventLoopGroup group, Class<? extends DatagramChannel> channel, int datagramSize, int receiveBatch) {
+        if (receiveBatch < 1) {
+            throw new IllegalArgumentException("Must receive at least 1 datagram per batch");
+        }
+        this.group = group;
+        ownsGroup = false;
+        ebolaAvailable = EpollDatagramChannel.class.isAssignableFrom(channel);
+        segmented = ebolaAvailable && EpollDatagramChannel.isSegmentedDatagramPacketSupported();
+        boolean reusePort = !NioDatagramChannel.class.isAssignableFrom(channel);
+        for (EventExecutor executor : group) {
+            sessionLoops.add((EventLoop) executor);
+        }
+        for (EventLoop loop : sessionLoops) {
+            addBootstrap(loop, channel, reusePort, datagramSize, receiveBatch);
+            if (!reusePort) {
+                break;
             }
-        };
-        while (threads-- > 0) {
-            Bootstrap ioBootstrap = new Bootstrap().group(group).channel(channel).handler(initializer);
-            if (ebolaAvailable) {
-                ioBootstrap.option(UnixChannelOption.SO_REUSEPORT, true);
+        }
+    }
+
+    /**
+     * Internal use only
+     * Add the bootstrap for a socket, bound when the channel is bound.
+     *
+     * @param group        The event loop group of the socket
+     * @param channel      The datagram channel class
+     * @param reusePort    If the socket is bound with SO_REUSEPORT
+     * @param datagramSize The largest datagram that will be received
+     * @param receiveBatch The number of datagrams to read with each <code>recvmmsg</code>
+     */
+    private void addBootstrap(EventLoopGroup group, Class<? extends DatagramChannel> channel, boolean reusePort, int datagramSize, int receiveBatch) {
+        Bootstrap ioBootstrap = new Bootstrap().group(group).channel(channel).handler(ioInitializer);
+        if (reusePort) {
+            ioBootstrap.option(UnixChannelOption.SO_REUSEPORT, true);
+        }
+        if (ebolaAvailable && receiveBatch > 1) {
+            //A datagram size above 0 makes epoll read up to as many datagrams as fit the buffer with recvmmsg
+            ioBootstrap.option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, datagramSize);
+        }
+        ioBootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(datagramSize * (ebolaAvailable ? receiveBatch : 1)));
+        ioBootstraps.add(ioBootstrap);
+    }
+
+    protected void doWrite(RecyclableArrayList list, UdpChannel userChannel) {
+        InetSocketAddress remote = userChannel.remote;
+        Channel target = ioChannel(userChannel);
+        if (target.eventLoop().inEventLoop()) {
+            doWrite(target, list, remote);
+        } else {
+            target.eventLoop().execute(() -> doWrite(target, list, remote));
+        }
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param userChannel The client session
+     * @return The socket the datagrams of the session are written with
+     */
+    protected Channel ioChannel(UdpChannel userChannel) {
+        //Reply from the socket the client was received on, the kernel keeps each client on one socket
+        Channel ioChannel = userChannel.ioChannel;
+        if (userChannel.affinity != null) {
+            //With connection affinity, write with the socket on the session's own thread
+            Channel local = ioChannelsByLoop.get(userChannel.affinity);
+            if (local != null) {
+                ioChannel = local;
             }
-            ioBootstraps.add(ioBootstrap);
         }
+        if (ioChannel == null) {
+            ioChannel = ioChannels.get(Math.floorMod(userChannel.remote.hashCode(), ioChannels.size()));
+        }
+        return ioChannel;
     }
 
-    protected void doWrite(RecyclableArrayList list, InetSocketAddress remote) {
-        Channel ioChannel = ioChannels.get(remote.hashCode() & (ioChannels.size() - 1));
-        ioChannel.eventLoop().execute(() -> {
-            try {
+    /**
+     * Internal use only
+     * Write the datagrams for a client from the thread of the socket.
+     *
+     * @param ioChannel The socket to write with
+     * @param list      The datagrams to write
+     * @param remote    The client address
+     */
+    protected void doWrite(Channel ioChannel, RecyclableArrayList list, InetSocketAddress remote) {
+        try {
+            if (segmented && list.size() > 1) {
+                writeSegmented(ioChannel, list, remote);
+            } else {
                 for (Object buf : list) {
                     ioChannel.write(new DatagramPacket((ByteBuf) buf, remote));
                 }
-                ioChannel.flush();
-            } finally {
-                list.recycle();
             }
-        });
+            ioChannel.flush();
+        } finally {
+            list.recycle();
+        }
+    }
+
+    /**
+     * Internal use only
+     * Write the datagrams for a client, joining each run of equally sized datagrams into one
+     * <code>SegmentedDatagramPacket</code> the kernel splits with UDP GSO.
+     * Only the last datagram of a run may be shorter than the others.
+     *
+     * @param ioChannel The socket to write with
+     * @param list      The datagrams to write
+     * @param remote    The client address
+     */
+    protected void writeSegmented(Channel ioChannel, RecyclableArrayList list, InetSocketAddress remote) {
+        int start = 0;
+        while (start < list.size()) {
+            ByteBuf first = (ByteBuf) list.get(start);
+            int segmentSize = first.readableBytes();
+            int total = segmentSize;
+            int end = start + 1;
+            while (segmentSize > 0 && end < list.size() && end - start < MAX_SEGMENTS) {
+                int size = ((ByteBuf) list.get(end)).readableBytes();
+                if (size == 0 || size > segmentSize || total + size > MAX_SEGMENTED_SIZE) {
+                    break;
+                }
+                total += size;
+                end++;
+                if (size < segmentSize) {
+                    break;
+                }
+            }
+            if (end - start == 1) {
+                ioChannel.write(new DatagramPacket(first, remote));
+            } else {
+                CompositeByteBuf data = ioChannel.alloc().compositeDirectBuffer(end - start);
+                for (int i = start; i < end; i++) {
+                    data.addComponent(true, (ByteBuf) list.get(i));
+                }
+                ioChannel.write(new SegmentedDatagramPacket(data, segmentSize, remote));
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Sets the time without receiving a datagram after which a client session is closed and removed,
+     * unless the TCP connection of its client is still active.
+     * A timeout of 0 disables removing idle sessions, which is the default.
+     * This should be set before the channel is bound.
+     *
+     * @param idleTimeout The idle timeout
+     * @param unit        The unit of the idle timeout
+     */
+    public void setIdleTimeout(long idleTimeout, TimeUnit unit) {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative");
+        }
+        this.idleTimeout = unit.toNanos(idleTimeout);
+    }
+
+    /**
+     * @param unit The unit to return the idle timeout in
+     * @return The time without receiving a datagram after which a client session is closed and removed
+     */
+    public long getIdleTimeout(TimeUnit unit) {
+        return unit.convert(idleTimeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the number of received datagrams each client session holds until its pipeline reads them,
+     * rounded up to a power of two. By default this is 512.
+     * This should be set before the channel is bound.
+     *
+     * @param sessionBufferSize The number of datagrams held per session
+     */
+    public void setSessionBufferSize(int sessionBufferSize) {
+        if (sessionBufferSize < 1) {
+            throw new IllegalArgumentException("Session buffer must hold at least 1 datagram");
+        }
+        this.sessionBufferSize = sessionBufferSize;
+    }
+
+    /**
+     * @return The number of received datagrams each client session holds until its pipeline reads them
+     */
+    public int getSessionBufferSize() {
+        return sessionBufferSize;
+    }
+
+    /**
+     * Sets what happens to a received datagram when the buffer of its session is full,
+     * either <code>OverflowPolicy.DROP_OLDEST</code> or <code>OverflowPolicy.DROP_NEWEST</code>.
+     * By default this is <code>OverflowPolicy.DROP_OLDEST</code>.
+     * This should be set before the channel is bound.
+     *
+     * @param sessionOverflowPolicy The overflow policy
+     */
+    public void setSessionOverflowPolicy(OverflowPolicy sessionOverflowPolicy) {
+        if (sessionOverflowPolicy != OverflowPolicy.DROP_OLDEST && sessionOverflowPolicy != OverflowPolicy.DROP_NEWEST) {
+            throw new IllegalArgumentException("UDP session buffers only support DROP_OLDEST and DROP_NEWEST");
+        }
+        this.sessionOverflowPolicy = sessionOverflowPolicy;
+    }
+
+    /**
+     * @return What happens to a received datagram when the buffer of its session is full
+     */
+    public OverflowPolicy getSessionOverflowPolicy() {
+        return sessionOverflowPolicy;
+    }
+
+    /**
+     * @return The number of received datagrams dropped because a session buffer was full
+     */
+    public long getDroppedCount() {
+        long count = closedDroppedCount.get();
+        for (UdpChannel userChannel : userChannels.values()) {
+            count += userChannel.getDroppedCount();
+        }
+        return count;
+    }
+
+    /**
+     * Sets the time in microseconds to busy poll the network device with <code>SO_BUSY_POLL</code> when reading
+     * a socket with no data. This only applies when epoll is available. By default this is 0, disabling busy polling.
+     * This should be set before the channel is bound.
+     *
+     * @param busyPoll The busy poll time in microseconds
+     */
+    public void setBusyPoll(int busyPoll) {
+        this.busyPoll = busyPoll;
+    }
+
+    /**
+     * Sets the socket options of the UDP sockets.
+     * This should be set before the channel is bound.
+     *
+     * @param transportOptions The socket options, or null for the defaults
+     */
+    public void setTransportOptions(TransportOptions transportOptions) {
+        this.transportOptions = transportOptions;
+    }
+
+    /**
+     * @return The number of client sessions currently open
+     */
+    public int getSessionCount() {
+        return userChannels.size();
+    }
+
+    /**
+     * @return The number of client sessions closed for being idle
+     */
+    public long getReapedCount() {
+        return reapedCount.get();
+    }
+
+    /**
+     * @return The number of datagrams dropped for not belonging to a session or carrying a valid cookie
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Internal use only
+     * Issue the cookie a client must send with <code>UdpDeliveryHandler.KIND_HANDSHAKE</code> to open a session.
+     * The cookie is only valid for datagrams from the same address, for <code>UdpCookies.COOKIE_LIFETIME</code>.
+     *
+     * @param address The address the client connected to the TCP server from
+     * @return The cookie
+     */
+    protected byte[] issueCookie(InetAddress address) {
+        return issueCookie(address, null);
+    }
+
+    /**
+     * Internal use only
+     * Issue the cookie a client must send with <code>UdpDeliveryHandler.KIND_HANDSHAKE</code> to open a session.
+     * With connection affinity, the session opened with the cookie is registered on the given event loop.
+     *
+     * @param address The address the client connected to the TCP server from
+     * @param loop    The event loop of the client's TCP connection, or null
+     * @return The cookie
+     */
+    protected byte[] issueCookie(InetAddress address, EventLoop loop) {
+        int affinity = loop == null ? -1 : sessionLoops.indexOf(loop);
+        return cookies.issue(address, affinity < 0 ? UdpCookies.NO_AFFINITY : affinity);
+    }
+
+    /**
+     * Internal use only
+     * Check the session after a delay, closing it if nothing has been received within the idle timeout.
+     * Sessions are checked on a timing wheel, and only rescheduled when they were active since the last check,
+     * so receiving a datagram costs no more than recording the time.
+     * A session whose client's TCP connection is still active is never closed, since the client has no way to
+     * open another session for the connection.
+     *
+     * @param userChannel The client session
+     * @param delay       The delay in nanoseconds
+     */
+    protected void scheduleReap(UdpChannel userChannel, long delay) {
+        reaper.newTimeout(timeout -> {
+            if (!userChannel.isOpen()) {
+                return;
+            }
+            long idle = System.nanoTime() - userChannel.lastReceived;
+            Channel tcpChannel = userChannel.tcpChannel;
+            if (tcpChannel != null && tcpChannel.isActive()) {
+                scheduleReap(userChannel, idleTimeout);
+            } else if (idle >= idleTimeout) {
+                reapedCount.incrementAndGet();
+                userChannel.close();
+            } else {
+                scheduleReap(userChannel, idleTimeout - idle);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Internal use only
+     *
+     * @param remote   The client address
+     * @param affinity The event loop to register the session on, or null for the loop of the receiving socket
+     * @return A new client session
+     */
+    protected UdpChannel newUserChannel(InetSocketAddress remote, EventLoop affinity) {
+        UdpChannel userChannel = new UdpChannel(this, remote);
+        userChannel.affinity = affinity;
+        return userChannel;
     }
 
     protected void doUserChannelRemove(UdpChannel userChannel) {
+        closedDroppedCount.addAndGet(userChannel.getDroppedCount());
         userChannels.compute((InetSocketAddress) userChannel.remoteAddress(), (lAddr, lChannel) -> lChannel == userChannel ? null : lChannel);
     }
 
@@ -138,7 +530,12 @@ public class UdpServerChannel extends AbstractServerChannel {
         open = false;
         new ArrayList<>(userChannels.values()).forEach(Channel::close);
         ioChannels.forEach(Channel::close);
-        group.shutdownGracefully().sync();
+        if (reaper != null) {
+            reaper.stop();
+        }
+        if (ownsGroup) {
+            group.shutdownGracefully();
+        }
     }
 
     @Override
@@ -153,8 +550,19 @@ public class UdpServerChannel extends AbstractServerChannel {
 
     @Override
     protected void doBind(SocketAddress local) throws Exception {
+        if (ebolaAvailable && busyPoll > 0) {
+            ioBootstraps.forEach(bootstrap -> bootstrap.option(EpollChannelOption.SO_BUSY_POLL, busyPoll));
+        }
+        if (transportOptions != null) {
+            ioBootstraps.forEach(transportOptions::applyUdp);
+        }
+        if (idleTimeout > 0) {
+            reaper = new HashedWheelTimer(new DefaultThreadFactory("monkey-netty-udp-reaper", true), 100, TimeUnit.MILLISECONDS);
+        }
         for (Bootstrap bootstrap : ioBootstraps) {
-            ioChannels.add(bootstrap.bind(local).sync().channel());
+            Channel ioChannel = bootstrap.bind(local).sync().channel();
+            ioChannels.add(ioChannel);
+            ioChannelsByLoop.put(ioChannel.eventLoop(), ioChannel);
         }
         ioBootstraps.clear();
     }
@@ -182,16 +590,37 @@ public class UdpServerChannel extends AbstractServerChannel {
     protected class ReadRouteChannelHandler extends SimpleChannelInboundHandler<DatagramPacket> {
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket p) throws Exception {
-            UdpChannel channel = userChannels.compute(p.sender(), (lAddr, lChannel) -> ((lChannel == null) || !lChannel.isOpen()) ? new UdpChannel(UdpServerChannel.this, lAddr) : lChannel);
-            channel.buffers.add(p.content().retain());
+            ByteBuf content = p.content();
+            boolean handshake = content.isReadable() && content.getUnsignedByte(content.readerIndex()) == UdpDeliveryHandler.KIND_HANDSHAKE;
+            UdpChannel channel = userChannels.get(p.sender());
+            if (channel == null || !channel.isOpen()) {
+                //Only create a session for a valid cookie, anything else is dropped before allocating anything
+                if (!handshake || !cookies.verify(content, content.readerIndex() + 1, p.sender().getAddress())) {
+                    rejectedCount.incrementAndGet();
+                    return;
+                }
+                int affinity = UdpCookies.affinity(content, content.readerIndex() + 1);
+                EventLoop loop = affinity < sessionLoops.size() ? sessionLoops.get(affinity) : null;
+                channel = userChannels.compute(p.sender(), (lAddr, lChannel) -> ((lChannel == null) || !lChannel.isOpen()) ? newUserChannel(lAddr, loop) : lChannel);
+            }
+            if (handshake) {
+                content.skipBytes(Math.min(content.readableBytes(), UdpCookies.COOKIE_LENGTH + 1));
+            }
+            channel.ioChannel = ctx.channel();
+            channel.lastReceived = System.nanoTime();
+            if (content.isReadable()) {
+                channel.addBuffer(content.retain());
+            }
             if (channel.getIsNew()) {
+                if (reaper != null) {
+                    scheduleReap(channel, idleTimeout);
+                }
                 ChannelPipeline serverPipeline = UdpServerChannel.this.pipeline();
                 serverPipeline.fireChannelRead(channel);
                 serverPipeline.fireChannelReadComplete();
-            } else {
-                if (channel.isRegistered()) {
-                    channel.read();
-                }
+            } else if (channel.isRegistered()) {
+                //Reads the datagram immediately when the session is registered on this thread, otherwise hands it to the session's thread
+                channel.read();
             }
         }
     }
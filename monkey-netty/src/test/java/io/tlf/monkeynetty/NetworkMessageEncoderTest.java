@@ -0,0 +1,259 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.tlf.monkeynetty.msg.ConnectionEstablishedMessage;
+import io.tlf.monkeynetty.msg.NetworkMessage;
+import io.tlf.monkeynetty.msg.UdpConHashMessage;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips messages through <code>NetworkMessageEncoder</code> and <code>NetworkMessageDecoder</code>,
+ * and checks the frame layout on the wire.
+ */
+public class NetworkMessageEncoderTest {
+
+    private final MessageCodecRegistry codecs = new MessageCodecRegistry();
+    private final NetworkRegistrar registrar = new NetworkRegistrar();
+    private final EmbeddedChannel channel = new EmbeddedChannel(
+            new NetworkMessageEncoder(codecs, registrar),
+            new NetworkMessageDecoder(Integer.MAX_VALUE, MessageClassResolver.defaultResolver(), codecs, registrar));
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void registeredCodecFrameHasPaddedLength() {
+        codecs.register(Position.class, Position.CODEC);
+        registrar.register(Position.class);
+        ByteBuf frame = encode(new Position(42));
+        try {
+            //Length padded to 3 bytes, then the type and flags
+            assertEquals(0x80, frame.getUnsignedByte(0) & 0x80);
+            assertEquals(0x80, frame.getUnsignedByte(1) & 0x80);
+            assertEquals(0, frame.getUnsignedByte(2) & 0x80);
+            int length = (frame.getUnsignedByte(0) & 0x7F) | (frame.getUnsignedByte(1) & 0x7F) << 7 | frame.getUnsignedByte(2) << 14;
+            assertEquals(frame.readableBytes() - 3, length);
+            assertEquals(NetworkMessageEncoder.TYPE_REGISTERED + registrar.getId(Position.class), frame.getUnsignedByte(3));
+            assertEquals(0, frame.getUnsignedByte(4));
+            assertEquals(5 + 4, frame.readableBytes());
+            Position decoded = decode(frame.retain());
+            assertEquals(42, decoded.id);
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void unregisteredCodecFrameIsNamed() {
+        codecs.register(Position.class, Position.CODEC);
+        ByteBuf frame = encode(new Position(7));
+        try {
+            assertEquals(NetworkMessageEncoder.TYPE_NAMED, frame.getUnsignedByte(3));
+            Position decoded = decode(frame.retain());
+            assertEquals(7, decoded.id);
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void messageWithoutCodecIsSerialized() {
+        Chat chat = new Chat();
+        chat.text = "hello";
+        ByteBuf frame = encode(chat);
+        assertEquals(NetworkMessageEncoder.TYPE_SERIALIZED, frame.getUnsignedByte(3));
+        Chat decoded = decode(frame);
+        assertEquals("hello", decoded.text);
+    }
+
+    @Test
+    public void controlFramesRoundTrip() {
+        ByteBuf frame = encode(new ConnectionEstablishedMessage());
+        assertEquals(NetworkMessageEncoder.TYPE_CONTROL, frame.getUnsignedByte(3));
+        assertTrue(decode(frame) instanceof ConnectionEstablishedMessage);
+
+        byte[] cookie = new byte[32];
+        Arrays.fill(cookie, (byte) 5);
+        String hash = Base64.getEncoder().encodeToString(cookie);
+        UdpConHashMessage decoded = decode(encode(new UdpConHashMessage(hash, true)));
+        assertEquals(hash, decoded.getUdpHash());
+    }
+
+    @Test
+    public void minimalLengthIsAccepted() {
+        //The shared control frames are written with a 1 byte length
+        assertTrue(decode(ControlFrames.established()) instanceof ConnectionEstablishedMessage);
+    }
+
+    @Test
+    public void frameSplitAcrossReadsWaitsForTheRest() {
+        codecs.register(Position.class, Position.CODEC);
+        registrar.register(Position.class);
+        ByteBuf frame = encode(new Position(3));
+        ByteBuf first = frame.readRetainedSlice(2);
+        assertFalse(channel.writeInbound(first));
+        assertNull(channel.readInbound());
+        Position decoded = decode(frame);
+        assertEquals(3, decoded.id);
+    }
+
+    @Test
+    public void framesLargerThanTheReservedLengthRoundTrip() {
+        codecs.register(Blob.class, Blob.CODEC);
+        Blob blob = new Blob();
+        blob.data = new byte[3 * 1024 * 1024];
+        for (int i = 0; i < blob.data.length; i++) {
+            blob.data[i] = (byte) i;
+        }
+        ByteBuf frame = encode(blob);
+        //A length of 2 MiB or more does not fit in 3 bytes
+        assertEquals(0x80, frame.getUnsignedByte(2) & 0x80);
+        Blob decoded = decode(frame);
+        assertArrayEquals(blob.data, decoded.data);
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void malformedLengthIsRejected() {
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1}));
+    }
+
+    @Test(expected = TooLongFrameException.class)
+    public void frameOverTheMaximumIsRejected() {
+        EmbeddedChannel limited = new EmbeddedChannel(new NetworkMessageDecoder(16, MessageClassResolver.defaultResolver(), codecs, registrar));
+        try {
+            limited.writeInbound(Unpooled.wrappedBuffer(new byte[]{32, 0, 0}));
+        } finally {
+            limited.finishAndReleaseAll();
+        }
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void overlongVarIntIsRejected() {
+        ByteBuf in = Unpooled.wrappedBuffer(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1});
+        try {
+            NetworkBuffers.readVarInt(in);
+        } finally {
+            in.release();
+        }
+    }
+
+    private ByteBuf encode(NetworkMessage message) {
+        assertTrue(channel.writeOutbound(message));
+        return channel.readOutbound();
+    }
+
+    private <T> T decode(ByteBuf frame) {
+        assertTrue(channel.writeInbound(frame));
+        return channel.readInbound();
+    }
+
+    public static class Position implements NetworkMessage {
+        static final MessageCodec<Position> CODEC = new MessageCodec<Position>() {
+            @Override
+            public void encode(Position message, ByteBuf out) {
+                out.writeInt(message.id);
+            }
+
+            @Override
+            public Position decode(ByteBuf in) {
+                return new Position(in.readInt());
+            }
+        };
+
+        int id;
+
+        public Position(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getName() {
+            return "position";
+        }
+
+        @Override
+        public NetworkProtocol getProtocol() {
+            return NetworkProtocol.UDP_SEQUENCED;
+        }
+    }
+
+    public static class Blob implements NetworkMessage {
+        static final MessageCodec<Blob> CODEC = new MessageCodec<Blob>() {
+            @Override
+            public void encode(Blob message, ByteBuf out) {
+                out.writeInt(message.data.length);
+                out.writeBytes(message.data);
+            }
+
+            @Override
+            public Blob decode(ByteBuf in) {
+                Blob blob = new Blob();
+                blob.data = new byte[in.readInt()];
+                in.readBytes(blob.data);
+                return blob;
+            }
+        };
+
+        byte[] data;
+
+        @Override
+        public String getName() {
+            return "blob";
+        }
+
+        @Override
+        public NetworkProtocol getProtocol() {
+            return NetworkProtocol.TCP;
+        }
+    }
+
+    public static class Chat implements NetworkMessage {
+        String text;
+
+        @Override
+        public String getName() {
+            return "chat";
+        }
+
+        @Override
+        public NetworkProtocol getProtocol() {
+            return NetworkProtocol.TCP;
+        }
+    }
+}
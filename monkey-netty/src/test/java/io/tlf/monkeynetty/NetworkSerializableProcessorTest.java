@@ -0,0 +1,229 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+import io.tlf.monkeynetty.msg.NetworkMessage;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips messages through the codecs generated for <code>NetworkSerializable</code> classes in this source set.
+ */
+public class NetworkSerializableProcessorTest {
+
+    private final MessageCodecRegistry codecs = new MessageCodecRegistry();
+    private final NetworkRegistrar registrar = new NetworkRegistrar();
+    private final EmbeddedChannel channel = new EmbeddedChannel(
+            new NetworkMessageEncoder(codecs, registrar),
+            new NetworkMessageDecoder(Integer.MAX_VALUE, MessageClassResolver.defaultResolver(), codecs, registrar));
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void codecIsGenerated() {
+        MessageCodec<Object> codec = codecs.getCodec(State.class);
+        assertNotNull(codec);
+        assertEquals(MessageCodecRegistry.getGeneratedCodecName(State.class), codec.getClass().getName());
+    }
+
+    @Test
+    public void fieldsRoundTrip() {
+        registrar.register(State.class);
+        State state = new State();
+        state.id = 12;
+        state.time = Long.MIN_VALUE;
+        state.alive = true;
+        state.health = 0.5f;
+        state.score = -3;
+        state.name = "player";
+        state.color = Color.BLUE;
+        state.cells = new int[]{1, 2, 3};
+        state.tags = new String[]{"a", null, "c"};
+        state.part = new Part();
+        state.part.x = 1.5;
+        state.extra = new ArrayList<>(Arrays.asList("x", "y"));
+
+        State decoded = roundTrip(state);
+        assertEquals(12, decoded.id);
+        assertEquals(Long.MIN_VALUE, decoded.time);
+        assertTrue(decoded.alive);
+        assertEquals(0.5f, decoded.health, 0);
+        assertEquals(Integer.valueOf(-3), decoded.score);
+        assertEquals("player", decoded.name);
+        assertEquals(Color.BLUE, decoded.color);
+        assertArrayEquals(new int[]{1, 2, 3}, decoded.cells);
+        assertArrayEquals(new String[]{"a", null, "c"}, decoded.tags);
+        assertEquals(Part.class, decoded.part.getClass());
+        assertEquals(1.5, decoded.part.x, 0);
+        assertEquals(Arrays.asList("x", "y"), decoded.extra);
+    }
+
+    @Test
+    public void nullFieldsRoundTrip() {
+        State decoded = roundTrip(new State());
+        assertNull(decoded.score);
+        assertNull(decoded.name);
+        assertNull(decoded.color);
+        assertNull(decoded.cells);
+        assertNull(decoded.tags);
+        assertNull(decoded.part);
+        assertNull(decoded.extra);
+    }
+
+    @Test
+    public void nestedSubclassIsNotTruncated() {
+        State state = new State();
+        SubPart part = new SubPart();
+        part.x = 2;
+        part.y = 3;
+        state.part = part;
+
+        State decoded = roundTrip(state);
+        assertEquals(SubPart.class, decoded.part.getClass());
+        assertEquals(2, decoded.part.x, 0);
+        assertEquals(3, ((SubPart) decoded.part).y);
+    }
+
+    @Test
+    public void nestedObjectsUseTheRegistrar() {
+        registrar.register(SubPart.class);
+        State state = new State();
+        state.part = new SubPart();
+
+        assertTrue(channel.writeOutbound(state));
+        ByteBuf frame = channel.readOutbound();
+        //A registered class is written as its UID instead of its name
+        assertFalse(frame.toString(CharsetUtil.UTF_8).contains(SubPart.class.getName()));
+        assertTrue(channel.writeInbound(frame));
+        State decoded = channel.readInbound();
+        assertEquals(SubPart.class, decoded.part.getClass());
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void invalidOrdinalIsRejected() throws Exception {
+        ByteBuf in = writeScalars(Unpooled.buffer());
+        NetworkBuffers.writeVarInt(in, Color.values().length + 1);
+        decode(in);
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void arrayLongerThanFrameIsRejected() throws Exception {
+        ByteBuf in = writeScalars(Unpooled.buffer());
+        NetworkBuffers.writeVarInt(in, 0);
+        NetworkBuffers.writeVarInt(in, Integer.MAX_VALUE);
+        decode(in);
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void arrayLengthIsCheckedAgainstElementSize() throws Exception {
+        ByteBuf in = writeScalars(Unpooled.buffer());
+        NetworkBuffers.writeVarInt(in, 0);
+        //3 ints do not fit in the 8 bytes that follow
+        NetworkBuffers.writeVarInt(in, 3 + 1);
+        in.writeLong(0);
+        decode(in);
+    }
+
+    /**
+     * Write the fields of a <code>State</code> that come before its color.
+     */
+    private static ByteBuf writeScalars(ByteBuf out) {
+        out.writeInt(0);
+        out.writeLong(0);
+        out.writeBoolean(false);
+        out.writeFloat(0);
+        out.writeBoolean(false);
+        NetworkBuffers.writeString(out, null);
+        return out;
+    }
+
+    private void decode(ByteBuf in) throws Exception {
+        try {
+            codecs.getCodec(State.class).decode(in);
+        } finally {
+            in.release();
+        }
+    }
+
+    private State roundTrip(State state) {
+        assertTrue(channel.writeOutbound(state));
+        ByteBuf frame = channel.readOutbound();
+        assertTrue(channel.writeInbound(frame));
+        return channel.readInbound();
+    }
+
+    public enum Color {
+        RED, BLUE
+    }
+
+    @NetworkSerializable
+    public static class State implements NetworkMessage {
+        int id;
+        long time;
+        boolean alive;
+        float health;
+        Integer score;
+        String name;
+        Color color;
+        int[] cells;
+        String[] tags;
+        Part part;
+        ArrayList<String> extra;
+        transient int ignored;
+
+        @Override
+        public String getName() {
+            return "state";
+        }
+
+        @Override
+        public NetworkProtocol getProtocol() {
+            return NetworkProtocol.UDP;
+        }
+    }
+
+    @NetworkSerializable
+    public static class Part implements Serializable {
+        double x;
+    }
+
+    public static class SubPart extends Part {
+        int y;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the actions of <code>OutboundLimits</code> on a channel holding unflushed writes.
+ */
+public class OutboundLimitsTest {
+
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+    private final OutboundLimits limits = new OutboundLimits();
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void writableChannelIsWritten() {
+        for (NetworkProtocol protocol : NetworkProtocol.values()) {
+            assertEquals(OutboundLimits.Action.WRITE, limits.check(channel, protocol));
+        }
+    }
+
+    @Test
+    public void unreliableIsDroppedWhileNotWritable() {
+        queue(100);
+        assertFalse(channel.isWritable());
+        assertEquals(OutboundLimits.Action.DROP, limits.check(channel, NetworkProtocol.UDP));
+        assertEquals(OutboundLimits.Action.WRITE, limits.check(channel, NetworkProtocol.TCP));
+    }
+
+    @Test
+    public void reliableOverQueueLimitDisconnects() {
+        limits.setQueueLimit(50);
+        queue(100);
+        assertEquals(OutboundLimits.Action.DISCONNECT, limits.check(channel, NetworkProtocol.TCP));
+    }
+
+    @Test
+    public void reliableOverQueueLimitIsDroppedOnSharedChannel() {
+        limits.setQueueLimit(50);
+        queue(100);
+        assertEquals(OutboundLimits.Action.DROP, limits.check(channel, NetworkProtocol.UDP_RELIABLE, true));
+    }
+
+    /**
+     * Write without flushing, so the bytes stay queued on the channel.
+     */
+    private void queue(int bytes) {
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(bytes / 4, bytes / 2));
+        channel.write(Unpooled.buffer().writeZero(bytes));
+    }
+}
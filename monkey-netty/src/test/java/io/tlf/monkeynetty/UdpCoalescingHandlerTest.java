@@ -0,0 +1,111 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Packs datagrams with a <code>UdpCoalescingHandler</code> and splits them with another.
+ */
+public class UdpCoalescingHandlerTest {
+
+    private static final int DATAGRAM_SIZE = 64;
+
+    private final EmbeddedChannel sender = new EmbeddedChannel(new UdpCoalescingHandler(DATAGRAM_SIZE));
+    private final EmbeddedChannel receiver = new EmbeddedChannel(new UdpCoalescingHandler(DATAGRAM_SIZE));
+
+    @After
+    public void tearDown() {
+        sender.finishAndReleaseAll();
+        receiver.finishAndReleaseAll();
+    }
+
+    @Test
+    public void datagramsWrittenBeforeAFlushArePacked() {
+        sender.write(Unpooled.buffer().writeInt(1));
+        sender.write(Unpooled.buffer().writeInt(2));
+        sender.write(Unpooled.buffer().writeInt(3));
+        assertNull(sender.readOutbound());
+        sender.flush();
+
+        ByteBuf packed = sender.readOutbound();
+        assertEquals(UdpDeliveryHandler.KIND_COALESCED, packed.getUnsignedByte(0));
+        assertEquals(1 + 3 * 5, packed.readableBytes());
+        assertNull(sender.readOutbound());
+
+        receiver.writeInbound(packed);
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, readValue(receiver));
+        }
+        assertNull(receiver.readInbound());
+    }
+
+    @Test
+    public void singleDatagramIsNotPacked() {
+        ByteBuf datagram = Unpooled.buffer().writeInt(1);
+        sender.writeAndFlush(datagram);
+        assertSame(datagram, sender.readOutbound());
+        datagram.release();
+    }
+
+    @Test
+    public void fullDatagramIsSentWithoutAFlush() {
+        for (int i = 0; i < 13; i++) {
+            sender.write(Unpooled.buffer().writeInt(i));
+        }
+        //Each packed datagram takes 5 bytes after the kind, so the 13th does not fit in 64 bytes
+        ByteBuf packed = sender.readOutbound();
+        assertNotNull(packed);
+        assertTrue(packed.readableBytes() <= DATAGRAM_SIZE);
+        receiver.writeInbound(packed);
+        for (int i = 0; i < 12; i++) {
+            assertEquals(i, readValue(receiver));
+        }
+    }
+
+    @Test
+    public void uncoalescedDatagramIsPassedOn() {
+        ByteBuf datagram = Unpooled.buffer().writeByte(UdpDeliveryHandler.KIND_UNRELIABLE);
+        receiver.writeInbound(datagram);
+        assertSame(datagram, receiver.readInbound());
+        datagram.release();
+    }
+
+    private static int readValue(EmbeddedChannel channel) {
+        ByteBuf datagram = channel.readInbound();
+        assertNotNull(datagram);
+        try {
+            return datagram.readInt();
+        } finally {
+            datagram.release();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Passes frames between two channels with a <code>UdpDeliveryHandler</code> each, dropping and reordering
+ * datagrams on the way.
+ */
+public class UdpDeliveryHandlerTest {
+
+    private final EmbeddedChannel sender = new EmbeddedChannel(new UdpDeliveryHandler());
+    private final EmbeddedChannel receiver = new EmbeddedChannel(new UdpDeliveryHandler());
+
+    @After
+    public void tearDown() {
+        sender.finishAndReleaseAll();
+        receiver.finishAndReleaseAll();
+    }
+
+    @Test
+    public void unreliableFrameIsPassedOn() {
+        ByteBuf datagram = send(NetworkProtocol.UDP, 0, 5);
+        assertEquals(UdpDeliveryHandler.KIND_UNRELIABLE, datagram.getUnsignedByte(0));
+        receiver.writeInbound(datagram);
+        assertEquals(5, readValue(receiver));
+    }
+
+    @Test
+    public void staleSequencedFrameIsDiscarded() {
+        ByteBuf first = send(NetworkProtocol.UDP_SEQUENCED, 1, 1);
+        ByteBuf second = send(NetworkProtocol.UDP_SEQUENCED, 1, 2);
+        ByteBuf other = send(NetworkProtocol.UDP_SEQUENCED, 2, 3);
+
+        receiver.writeInbound(second);
+        receiver.writeInbound(first);
+        receiver.writeInbound(other);
+        assertEquals(2, readValue(receiver));
+        //Channels are sequenced independently
+        assertEquals(3, readValue(receiver));
+        assertNull(receiver.readInbound());
+    }
+
+    @Test
+    public void sequenceChannelsAreBounded() {
+        for (int channel = 0; channel < UdpDeliveryHandler.MAX_SEQUENCE_CHANNELS; channel++) {
+            receiver.writeInbound(send(NetworkProtocol.UDP_SEQUENCED, channel, channel));
+            assertEquals(channel, readValue(receiver));
+        }
+        receiver.writeInbound(send(NetworkProtocol.UDP_SEQUENCED, UdpDeliveryHandler.MAX_SEQUENCE_CHANNELS, 0));
+        assertNull(receiver.readInbound());
+    }
+
+    @Test
+    public void reliableFramesAreDeliveredInOrderOnce() {
+        ByteBuf first = send(NetworkProtocol.UDP_RELIABLE, 0, 1);
+        ByteBuf second = send(NetworkProtocol.UDP_RELIABLE, 0, 2);
+        ByteBuf third = send(NetworkProtocol.UDP_RELIABLE, 0, 3);
+
+        receiver.writeInbound(third);
+        receiver.writeInbound(second.retain());
+        assertNull(receiver.readInbound());
+        receiver.writeInbound(first);
+        assertEquals(1, readValue(receiver));
+        assertEquals(2, readValue(receiver));
+        assertEquals(3, readValue(receiver));
+        //A duplicate is not delivered again
+        receiver.writeInbound(second);
+        assertNull(receiver.readInbound());
+    }
+
+    @Test
+    public void reliableFrameIsResentUntilAcknowledged() throws Exception {
+        ByteBuf lost = send(NetworkProtocol.UDP_RELIABLE, 0, 9);
+        lost.release();
+
+        Thread.sleep(250);
+        sender.runScheduledPendingTasks();
+        ByteBuf resent = sender.readOutbound();
+        assertNotNull(resent);
+        assertEquals(UdpDeliveryHandler.KIND_RELIABLE, resent.getUnsignedByte(0));
+        receiver.writeInbound(resent);
+        assertEquals(9, readValue(receiver));
+
+        ByteBuf ack = receiver.readOutbound();
+        assertEquals(UdpDeliveryHandler.KIND_ACK, ack.getUnsignedByte(0));
+        sender.writeInbound(ack);
+        Thread.sleep(250);
+        sender.runScheduledPendingTasks();
+        assertNull(sender.readOutbound());
+    }
+
+    private ByteBuf send(NetworkProtocol protocol, int channel, int value) {
+        sender.writeOutbound(new UdpFrame(protocol, channel, Unpooled.buffer(4).writeInt(value)));
+        ByteBuf datagram = sender.readOutbound();
+        assertNotNull(datagram);
+        return datagram;
+    }
+
+    private static int readValue(EmbeddedChannel channel) {
+        ByteBuf frame = channel.readInbound();
+        assertNotNull(frame);
+        try {
+            return frame.readInt();
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Splits datagrams with a <code>UdpFragmentationHandler</code> and reassembles them with another.
+ */
+public class UdpFragmentationHandlerTest {
+
+    private static final int DATAGRAM_SIZE = 100;
+
+    private final EmbeddedChannel sender = new EmbeddedChannel(new UdpFragmentationHandler(DATAGRAM_SIZE, 65507));
+    private final EmbeddedChannel receiver = new EmbeddedChannel(new UdpFragmentationHandler(DATAGRAM_SIZE, 65507));
+
+    @After
+    public void tearDown() {
+        sender.finishAndReleaseAll();
+        receiver.finishAndReleaseAll();
+    }
+
+    @Test
+    public void smallDatagramIsNotFragmented() {
+        ByteBuf datagram = Unpooled.buffer().writeZero(DATAGRAM_SIZE);
+        sender.writeOutbound(datagram);
+        ByteBuf written = sender.readOutbound();
+        assertSame(datagram, written);
+        assertNull(sender.readOutbound());
+        written.release();
+    }
+
+    @Test
+    public void fragmentsReassembleInAnyOrder() {
+        byte[] data = new byte[1000];
+        new Random(1).nextBytes(data);
+        sender.writeOutbound(Unpooled.wrappedBuffer(data));
+        List<ByteBuf> fragments = new ArrayList<>();
+        ByteBuf fragment;
+        while ((fragment = sender.readOutbound()) != null) {
+            assertTrue(fragment.readableBytes() <= DATAGRAM_SIZE);
+            assertEquals(UdpDeliveryHandler.KIND_FRAGMENT, fragment.getUnsignedByte(0));
+            fragments.add(fragment);
+        }
+        assertTrue(fragments.size() > 1);
+
+        Collections.reverse(fragments);
+        for (int i = 0; i < fragments.size(); i++) {
+            receiver.writeInbound(fragments.get(i));
+            if (i < fragments.size() - 1) {
+                assertNull(receiver.readInbound());
+            }
+        }
+        ByteBuf datagram = receiver.readInbound();
+        try {
+            assertArrayEquals(data, ByteBufUtil.getBytes(datagram));
+        } finally {
+            datagram.release();
+        }
+    }
+
+    @Test
+    public void incompleteDatagramIsNotPassedOn() {
+        sender.writeOutbound(Unpooled.buffer().writeZero(500));
+        ByteBuf first = sender.readOutbound();
+        receiver.writeInbound(first);
+        assertNull(receiver.readInbound());
+    }
+
+    @Test
+    public void fragmentCountBeyondMaxDatagramIsDropped() {
+        EmbeddedChannel small = new EmbeddedChannel(new UdpFragmentationHandler(DATAGRAM_SIZE, 1000));
+        try {
+            //1000 bytes fit in 11 fragments of 93 bytes
+            small.writeInbound(fragment(1, 0, 12, DATAGRAM_SIZE - 7));
+            assertNull(small.readInbound());
+            small.writeInbound(fragment(2, 0, 11, DATAGRAM_SIZE - 7));
+            small.writeInbound(fragment(2, 10, 11, 1));
+            for (int index = 1; index < 10; index++) {
+                small.writeInbound(fragment(2, index, 11, DATAGRAM_SIZE - 7));
+            }
+            ByteBuf datagram = small.readInbound();
+            assertEquals(10 * (DATAGRAM_SIZE - 7) + 1, datagram.readableBytes());
+            datagram.release();
+        } finally {
+            small.finishAndReleaseAll();
+        }
+    }
+
+    @Test
+    public void shortFragmentIsDropped() {
+        receiver.writeInbound(fragment(1, 0, 2, 1));
+        receiver.writeInbound(fragment(1, 1, 2, 1));
+        assertNull(receiver.readInbound());
+        receiver.writeInbound(fragment(1, 0, 2, DATAGRAM_SIZE - 7));
+        ByteBuf datagram = receiver.readInbound();
+        assertEquals(DATAGRAM_SIZE - 7 + 1, datagram.readableBytes());
+        datagram.release();
+    }
+
+    private static ByteBuf fragment(int id, int index, int count, int length) {
+        ByteBuf fragment = Unpooled.buffer();
+        fragment.writeByte(UdpDeliveryHandler.KIND_FRAGMENT);
+        fragment.writeShort(id);
+        fragment.writeShort(index);
+        fragment.writeShort(count);
+        return fragment.writeZero(length);
+    }
+}
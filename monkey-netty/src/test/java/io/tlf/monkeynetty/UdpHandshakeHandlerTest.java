@@ -0,0 +1,109 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the cookie prefix and resends of <code>UdpHandshakeHandler</code>.
+ */
+public class UdpHandshakeHandlerTest {
+
+    private final byte[] cookie = new byte[32];
+    private final UdpHandshakeHandler handler;
+    private final EmbeddedChannel channel;
+
+    public UdpHandshakeHandlerTest() {
+        Arrays.fill(cookie, (byte) 7);
+        handler = new UdpHandshakeHandler(cookie);
+        channel = new EmbeddedChannel(handler);
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void datagramsArePrefixedWithTheCookie() {
+        channel.writeOutbound(Unpooled.buffer().writeInt(1));
+        channel.writeOutbound(Unpooled.buffer().writeInt(2));
+        assertPrefixed(channel.readOutbound(), 1);
+        assertPrefixed(channel.readOutbound(), 2);
+    }
+
+    @Test
+    public void firstDatagramIsResentUntilComplete() throws Exception {
+        channel.writeOutbound(Unpooled.buffer().writeInt(1));
+        assertPrefixed(channel.readOutbound(), 1);
+
+        Thread.sleep(UdpHandshakeHandler.RESEND_INTERVAL + 50);
+        channel.runScheduledPendingTasks();
+        assertPrefixed(channel.readOutbound(), 1);
+
+        handler.complete();
+        channel.runPendingTasks();
+        assertNull(channel.pipeline().get(UdpHandshakeHandler.class));
+        Thread.sleep(UdpHandshakeHandler.RESEND_INTERVAL + 50);
+        channel.runScheduledPendingTasks();
+        assertNull(channel.readOutbound());
+
+        ByteBuf datagram = Unpooled.buffer().writeInt(2);
+        channel.writeOutbound(datagram);
+        assertSame(datagram, channel.readOutbound());
+        datagram.release();
+    }
+
+    @Test
+    public void receivingADatagramCompletesTheHandshake() {
+        channel.writeOutbound(Unpooled.buffer().writeInt(1));
+        ((ByteBuf) channel.readOutbound()).release();
+        channel.writeInbound(Unpooled.buffer().writeInt(3));
+        assertNull(channel.pipeline().get(UdpHandshakeHandler.class));
+        ((ByteBuf) channel.readInbound()).release();
+    }
+
+    private void assertPrefixed(ByteBuf datagram, int value) {
+        assertNotNull(datagram);
+        try {
+            assertEquals(UdpDeliveryHandler.KIND_HANDSHAKE, datagram.readUnsignedByte());
+            byte[] prefix = new byte[cookie.length];
+            datagram.readBytes(prefix);
+            assertArrayEquals(cookie, prefix);
+            assertEquals(value, datagram.readInt());
+            assertFalse(datagram.isReadable());
+        } finally {
+            datagram.release();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.tlf.monkeynetty.msg.NetworkMessage;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends messages between two channels with the UDP pipeline of a server session,
+ * fragmenting, coalescing and sequencing them on the way.
+ */
+public class UdpPipelineTest {
+
+    private static final int DATAGRAM_SIZE = 200;
+
+    private final MessageCodecRegistry codecs = new MessageCodecRegistry();
+    private final NetworkRegistrar registrar = new NetworkRegistrar();
+    private final EmbeddedChannel left = pipeline();
+    private final EmbeddedChannel right = pipeline();
+
+    @After
+    public void tearDown() {
+        left.finishAndReleaseAll();
+        right.finishAndReleaseAll();
+    }
+
+    @Test
+    public void messagesOfEveryProtocolArrive() {
+        codecs.register(Payload.class, Payload.CODEC);
+        registrar.register(Payload.class);
+        left.write(new Payload(NetworkProtocol.UDP, 1, 10));
+        left.write(new Payload(NetworkProtocol.UDP_SEQUENCED, 2, 10));
+        left.write(new Payload(NetworkProtocol.UDP_RELIABLE, 3, 10));
+        //Larger than a datagram, so it is fragmented
+        left.write(new Payload(NetworkProtocol.UDP_RELIABLE, 4, 1000));
+        left.flush();
+
+        int datagrams = transfer(left, right);
+        assertTrue(datagrams > 1);
+        List<Payload> received = new ArrayList<>();
+        Payload payload;
+        while ((payload = right.readInbound()) != null) {
+            received.add(payload);
+        }
+        assertEquals(4, received.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 1, received.get(i).id);
+        }
+        assertEquals(1000, received.get(3).data.length);
+        //The reliable messages are acknowledged
+        assertTrue(transfer(right, left) > 0);
+        assertNull(left.readInbound());
+    }
+
+    private EmbeddedChannel pipeline() {
+        return new EmbeddedChannel(
+                new UdpFragmentationHandler(DATAGRAM_SIZE, 65507),
+                new UdpCoalescingHandler(DATAGRAM_SIZE),
+                new UdpDeliveryHandler(),
+                new UdpMessageEncoder(codecs, registrar),
+                new NetworkMessageDecoder(65507, MessageClassResolver.defaultResolver(), codecs, registrar));
+    }
+
+    private static int transfer(EmbeddedChannel from, EmbeddedChannel to) {
+        int count = 0;
+        ByteBuf datagram;
+        while ((datagram = from.readOutbound()) != null) {
+            assertTrue(datagram.readableBytes() <= DATAGRAM_SIZE);
+            to.writeInbound(datagram);
+            count++;
+        }
+        return count;
+    }
+
+    public static class Payload implements NetworkMessage {
+        static final MessageCodec<Payload> CODEC = new MessageCodec<Payload>() {
+            @Override
+            public void encode(Payload message, ByteBuf out) {
+                out.writeByte(message.protocol.ordinal());
+                out.writeInt(message.id);
+                out.writeInt(message.data.length);
+                out.writeBytes(message.data);
+            }
+
+            @Override
+            public Payload decode(ByteBuf in) {
+                NetworkProtocol protocol = NetworkProtocol.values()[in.readByte()];
+                int id = in.readInt();
+                Payload payload = new Payload(protocol, id, in.readInt());
+                in.readBytes(payload.data);
+                return payload;
+            }
+        };
+
+        final NetworkProtocol protocol;
+        final int id;
+        final byte[] data;
+
+        Payload(NetworkProtocol protocol, int id, int size) {
+            this.protocol = protocol;
+            this.id = id;
+            this.data = new byte[size];
+        }
+
+        @Override
+        public String getName() {
+            return "payload";
+        }
+
+        @Override
+        public NetworkProtocol getProtocol() {
+            return protocol;
+        }
+    }
+}
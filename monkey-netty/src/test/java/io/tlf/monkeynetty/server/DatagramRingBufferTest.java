@@ -0,0 +1,125 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.tlf.monkeynetty.OverflowPolicy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fills <code>DatagramRingBuffer</code> past its capacity with each overflow policy.
+ */
+public class DatagramRingBufferTest {
+
+    @Test
+    public void datagramsArePolledInOrder() {
+        DatagramRingBuffer buffer = new DatagramRingBuffer(4, OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 3; i++) {
+            buffer.offer(Unpooled.buffer().writeInt(i));
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(0, readValue(buffer.poll()));
+        buffer.offer(Unpooled.buffer().writeInt(3));
+        assertEquals(1, readValue(buffer.poll()));
+        assertEquals(2, readValue(buffer.poll()));
+        assertEquals(3, readValue(buffer.poll()));
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        DatagramRingBuffer buffer = new DatagramRingBuffer(3, OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            buffer.offer(Unpooled.buffer().writeInt(i));
+        }
+        assertEquals(4, buffer.size());
+        assertEquals(1, buffer.getDroppedCount());
+        buffer.clear();
+    }
+
+    @Test
+    public void dropNewestKeepsTheHeldDatagrams() {
+        DatagramRingBuffer buffer = new DatagramRingBuffer(2, OverflowPolicy.DROP_NEWEST);
+        buffer.offer(Unpooled.buffer().writeInt(0));
+        buffer.offer(Unpooled.buffer().writeInt(1));
+        ByteBuf dropped = Unpooled.buffer().writeInt(2);
+        buffer.offer(dropped);
+        assertEquals(0, dropped.refCnt());
+        assertEquals(1, buffer.getDroppedCount());
+        assertEquals(0, readValue(buffer.poll()));
+        assertEquals(1, readValue(buffer.poll()));
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestDatagrams() {
+        DatagramRingBuffer buffer = new DatagramRingBuffer(2, OverflowPolicy.DROP_OLDEST);
+        ByteBuf oldest = Unpooled.buffer().writeInt(0);
+        buffer.offer(oldest);
+        buffer.offer(Unpooled.buffer().writeInt(1));
+        buffer.offer(Unpooled.buffer().writeInt(2));
+        assertEquals(0, oldest.refCnt());
+        assertEquals(1, buffer.getDroppedCount());
+        List<Integer> values = new ArrayList<>();
+        ByteBuf datagram;
+        while ((datagram = buffer.poll()) != null) {
+            values.add(readValue(datagram));
+        }
+        assertEquals(2, values.size());
+        assertTrue(values.contains(1));
+        assertTrue(values.contains(2));
+    }
+
+    @Test
+    public void clearReleasesHeldDatagrams() {
+        DatagramRingBuffer buffer = new DatagramRingBuffer(4, OverflowPolicy.DROP_OLDEST);
+        ByteBuf datagram = Unpooled.buffer().writeInt(0);
+        buffer.offer(datagram);
+        buffer.clear();
+        assertEquals(0, datagram.refCnt());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blockingPolicyIsRejected() {
+        new DatagramRingBuffer(4, OverflowPolicy.BLOCK);
+    }
+
+    private static int readValue(ByteBuf datagram) {
+        assertNotNull(datagram);
+        try {
+            return datagram.readInt();
+        } finally {
+            datagram.release();
+        }
+    }
+}
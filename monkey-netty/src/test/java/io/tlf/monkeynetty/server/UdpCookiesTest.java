@@ -0,0 +1,80 @@
+/*
+MIT License
+
+Copyright (c) 2020 Trevor Flynn
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package io.tlf.monkeynetty.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * Issues and verifies UDP session cookies.
+ */
+public class UdpCookiesTest {
+
+    private final UdpCookies cookies = new UdpCookies();
+
+    @Test
+    public void cookieIsValidForTheAddressItWasIssuedTo() throws Exception {
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        ByteBuf buf = Unpooled.buffer().writeByte(6).writeBytes(cookies.issue(address, 3));
+        try {
+            assertTrue(cookies.verify(buf, 1, address));
+            assertEquals(3, UdpCookies.affinity(buf, 1));
+            assertFalse(cookies.verify(buf, 1, InetAddress.getByName("192.0.2.2")));
+            assertFalse(cookies.verify(buf, 1, InetAddress.getByName("2001:db8::1")));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void tamperedCookieIsRejected() throws Exception {
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        byte[] cookie = cookies.issue(address, UdpCookies.NO_AFFINITY);
+        for (int i = 0; i < cookie.length; i++) {
+            ByteBuf buf = Unpooled.wrappedBuffer(cookie.clone());
+            buf.setByte(i, buf.getByte(i) ^ 1);
+            assertFalse("Byte " + i, cookies.verify(buf, 0, address));
+        }
+    }
+
+    @Test
+    public void cookieFromAnotherServerIsRejected() throws Exception {
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        ByteBuf buf = Unpooled.wrappedBuffer(new UdpCookies().issue(address, 0));
+        assertFalse(cookies.verify(buf, 0, address));
+    }
+
+    @Test
+    public void truncatedCookieIsRejected() throws Exception {
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        ByteBuf buf = Unpooled.wrappedBuffer(cookies.issue(address, 0), 0, UdpCookies.COOKIE_LENGTH - 1);
+        assertFalse(cookies.verify(buf, 0, address));
+    }
+}